@@ -0,0 +1,16 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+
+// Turns an audio file into a stream of PCM tokens that can be fed straight
+// into the fingerprinting pipeline. Implementations decide for themselves
+// which files they support so decoders can be chained or swapped freely
+public interface AudioDecoder {
+
+    // Given: an audio file and the number of samples in one token
+    // Returns: a reader positioned at the first frame of the decoded audio,
+    //          or null if this decoder does not support the file
+    // Throws an IOException if the file is supported but can't be decoded
+    PcmReader open(File file, int tokenSize) throws IOException;
+}
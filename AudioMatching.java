@@ -2,117 +2,239 @@ package audiomatching;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
 
 public class AudioMatching {
     
+    // Command line: [options] -f|-d <path> -f|-d <path>
+    //           or [options] -s <source> -d <path>
+    // Prints a MATCH line for every pair of matching files. With -s the
+    // source is a live stream of raw PCM frames, "-" for the standard input,
+    // "@line" for the capture line of the system or a file such as a FIFO,
+    // and a "MATCH <stream> <file> <seconds>" line is printed every time
+    // it starts playing a file of the directory. Errors are
+    // printed as "ERROR: <message>" and end the program with a non-zero
+    // exit status.
+    // With -connect <port> as the first two arguments the rest of the
+    // arguments are sent to the match server listening on that port of this
+    // machine, see MatchServer, and its answer is printed instead
     public static void main(String[] args) {
         try {
-            if (args.length == 4) {
-                
-                // Makes a folder inside the /tmp/ folder to store the
-                // converted audio files
-                Runtime.getRuntime().exec("mkdir /tmp/tempSoundFiles");
-                
-                String param1 = args[0]; // Must be -f or -d
-                String param2 = args[1]; // Must be a .mp3 or a .wav file
-                String param3 = args[2]; // Must be -f or -d
-                String param4 = args[3]; // Must be a .mp3 or a .wav file
+            if (args.length > 2 && args[0].equals("-connect")) {
+                int status = MatchServer.request(Integer.parseInt(args[1])
+                        , Arrays.copyOfRange(args, 2, args.length));
+                System.exit(status);
+            }
 
-                AudioMatchingUtilities utils = new AudioMatchingUtilities();
+            AudioMatchingUtilities utils = new AudioMatchingUtilities();
+            args = configure(utils, args);
+            run(utils, args, System.out);
+            // Keep the fingerprints of this run for the next one
+            utils.saveDatabase();
+            Metrics.export();
+        } catch (AudioMatchingException e) {
+            Metrics.export();
+            System.err.println("ERROR: " + e.getMessage());
+            System.exit(-1);
+        } catch (Exception e) {
+            Metrics.error("main", e);
+            Metrics.export();
+        }
+    }
 
-                // if the first parameter is a directory 
-                // and the other parameter is a file
-                if (param1.equals("-d") && param3.equals("-f")) {
-                    if (utils.initDirectory(param2)) {
-                        File file1 = new File(param4);
-                        utils.initAudio(file1.getCanonicalPath());
-                        
-                        File directory1 = new File(param2);
-                        File[] filesInDirectory1 = directory1.listFiles();
-                        
-                        // Match every file in the directory 
-                        // with the given file
-                        for (File f : filesInDirectory1) {
-                            try {
-                                utils.match(f.getCanonicalPath()
-                                        , file1.getCanonicalPath());
-                            } catch (IOException ex) {
-                            }
+    // Given: the utilities to set up and the command line arguments
+    // Returns: the arguments that follow the options
+    // Options come before the other arguments:
+    //   -db <file>   keeps the fingerprints in <file> between runs
+    //   -partial     matches files of different lengths, such as
+    //                excerpts, by aligning them
+    //   -landmarks   fingerprints files with pairs of spectral peaks
+    //   -sketch      compares files of different directories only if their
+    //                sketches are similar, much faster on large directories
+    //                but can very rarely miss a match, see SketchIndex
+    //   -top <k>     reports at most the k best matches of every file of
+    //                the first directory against the second one
+    //   -metrics <file>  times every stage and writes the metrics to
+    //                <file> as JSON at the end of the run, see Metrics
+    //   -stats <s>   times every stage and prints a summary of the metrics
+    //                every <s> seconds, if <s> is above 0, and at the end
+    //                of the run
+    //   -pcm <rate>:<bits>:<channels>  format of the frames of a live
+    //                stream, 44100:16:2 by default, little endian
+    //   -latency <s> most seconds of a live stream before a match is
+    //                reported, 3 by default
+    //   -watch <s>   keeps the directories of a match server in sync with
+    //                their files, rescanning them at least every <s>
+    //                seconds, see CatalogWatcher
+    static String[] configure(AudioMatchingUtilities utils, String[] args) {
+        String database = null;
+        boolean partial = false;
+        boolean landmarks = false;
+        while (args.length > 0) {
+            if (args[0].equals("-db") && args.length > 1) {
+                database = args[1];
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-partial")) {
+                partial = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args[0].equals("-landmarks")) {
+                landmarks = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args[0].equals("-sketch")) {
+                utils.setSketches(true);
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args[0].equals("-top") && args.length > 1) {
+                utils.setMaxResults(Integer.parseInt(args[1]));
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-metrics") && args.length > 1) {
+                Metrics.setEnabled(true);
+                Metrics.setOutput(new File(args[1]));
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-pcm") && args.length > 1) {
+                String[] format = args[1].split(":");
+                if (format.length != 3) {
+                    throw new AudioMatchingException("Incorrect arguments");
+                }
+                utils.setStreamFormat(Float.parseFloat(format[0])
+                        , Integer.parseInt(format[1])
+                        , Integer.parseInt(format[2]));
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-latency") && args.length > 1) {
+                utils.setLatency(Double.parseDouble(args[1]));
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-watch") && args.length > 1) {
+                utils.setWatchInterval(Long.parseLong(args[1]));
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-stats") && args.length > 1) {
+                Metrics.setEnabled(true);
+                Metrics.setSummary(System.err);
+                long seconds = Long.parseLong(args[1]);
+                if (seconds > 0) {
+                    Metrics.reportEvery(System.err, seconds);
+                }
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else {
+                break;
+            }
+        }
+
+        utils.setLandmarks(landmarks);
+        if (database != null) {
+            utils.openDatabase(database);
+        }
+        utils.setPartial(partial);
+        return args;
+    }
+
+    // Given: the utilities to match with, the four usual arguments and
+    //        where to print the MATCH lines
+    // Matches the given files or directories
+    // Throws an AudioMatchingException on wrong arguments or files
+    static void run(AudioMatchingUtilities utils, String[] args
+            , PrintStream out) throws IOException {
+        if (args.length == 4) {
+            
+            String param1 = args[0]; // Must be -f or -d
+            String param2 = args[1]; // Must be a .mp3 or a .wav file
+            String param3 = args[2]; // Must be -f or -d
+            String param4 = args[3]; // Must be a .mp3 or a .wav file
+
+            // if the first parameter is a live stream
+            // and the other parameter is a directory
+            if (param1.equals("-s") && param3.equals("-d")) {
+                utils.matchStream(param2, param4, out);
+            }
+            // if the first parameter is a directory 
+            // and the other parameter is a file
+            else if (param1.equals("-d") && param3.equals("-f")) {
+                if (utils.initDirectory(param2)) {
+                    File file1 = new File(param4);
+                    utils.initAudio(file1.getCanonicalPath());
+                    
+                    File directory1 = new File(param2);
+                    File[] filesInDirectory1 = directory1.listFiles();
+                    
+                    // Match every file in the directory 
+                    // with the given file
+                    for (File f : filesInDirectory1) {
+                        try {
+                            utils.match(f.getCanonicalPath()
+                                    , file1.getCanonicalPath(), out);
+                        } catch (IOException ex) {
+                            Metrics.error("listing", ex);
                         }
                     }
-                } 
-                // if the first parameter is a directory 
-                // and the other parameter is also a directory
-                else if (param1.equals("-d") && param3.equals("-d")) {
-                    if (utils.initDirectory(param2)
-                            && utils.initDirectory(param4)) {
-                        File directory1 = new File(param2);
-                        File directory2 = new File(param4);
-                        File[] filesInDirectory1 = directory1.listFiles();
-                        File[] filesInDirectory2 = directory2.listFiles();
-                        
-                        // Match every file in the first directory
-                        // with every file in the second directory
-                        for (File f1 : filesInDirectory1) {
-                            for (File f2 : filesInDirectory2) {
-                                try {
-                                    utils.match(f1.getCanonicalPath()
-                                            , f2.getCanonicalPath());
-                                } catch (IOException ex) {
-                                }
+                }
+            } 
+            // if the first parameter is a directory 
+            // and the other parameter is also a directory
+            else if (param1.equals("-d") && param3.equals("-d")) {
+                if (utils.initDirectory(param2)
+                        && utils.initDirectory(param4)) {
+                    File directory1 = new File(param2);
+                    File[] filesInDirectory1 = directory1.listFiles();
+                    
+                    // Index the fingerprints of the second directory
+                    TrackIndex index = utils.indexDirectory(param4);
+                    
+                    // Match every file in the first directory
+                    // with the files in the second directory, best
+                    // matches first
+                    int k = Math.min(utils.getMaxResults(), index.size());
+                    for (File f1 : filesInDirectory1) {
+                        try {
+                            String key1 = f1.getCanonicalPath();
+                            for (MatchResult result
+                                    : utils.query(key1, index, k)) {
+                                out.println(result.format(key1));
                             }
+                        } catch (IOException ex) {
+                            Metrics.error("listing", ex);
                         }
                     }
-                } 
-                // if the first parameter is a file 
-                // and the other parameter is also a file
-                else if (param1.equals("-f") && param3.equals("-f")) {
+                }
+            } 
+            // if the first parameter is a file 
+            // and the other parameter is also a file
+            else if (param1.equals("-f") && param3.equals("-f")) {
+                File file1 = new File(param2);
+                File file2 = new File(param4);
+                
+                utils.initAudio(file1.getCanonicalPath());
+                utils.initAudio(file2.getCanonicalPath());
+                // Match both the files
+                utils.match(file1.getCanonicalPath()
+                        , file2.getCanonicalPath(), out);
+            }
+            // if the first parameter is a file 
+            // and the other parameter is a directory
+            else if (param1.equals("-f") && param3.equals("-d")) {
+                if (utils.initDirectory(param4)) {
                     File file1 = new File(param2);
-                    File file2 = new File(param4);
-                    
                     utils.initAudio(file1.getCanonicalPath());
-                    utils.initAudio(file2.getCanonicalPath());
-                    // Match both the files
-                    utils.match(file1.getCanonicalPath()
-                            , file2.getCanonicalPath());
-                }
-                // if the first parameter is a file 
-                // and the other parameter is a directory
-                else if (param1.equals("-f") && param3.equals("-d")) {
-                    if (utils.initDirectory(param4)) {
-                        File file1 = new File(param2);
-                        utils.initAudio(file1.getCanonicalPath());
-                        
-                        File directory1 = new File(param4);
-                        File[] filesInDirectory1 = directory1.listFiles();
-                        
-                        // Match every file in the directory 
-                        // with the given file
-                        for (File f : filesInDirectory1) {
-                            try {
-                                utils.match(f.getCanonicalPath()
-                                        , file1.getCanonicalPath());
-                            } catch (IOException ex) {
-                            }
+                    
+                    File directory1 = new File(param4);
+                    File[] filesInDirectory1 = directory1.listFiles();
+                    
+                    // Match every file in the directory 
+                    // with the given file
+                    for (File f : filesInDirectory1) {
+                        try {
+                            utils.match(f.getCanonicalPath()
+                                    , file1.getCanonicalPath(), out);
+                        } catch (IOException ex) {
+                            Metrics.error("listing", ex);
                         }
                     }
-                } else {
-		    System.err.println("ERROR: Incorrect arguments");
-		    System.exit(-1);
-		}
-            } 
-            // In case of erroneous parameters 
-            else {
-		System.err.println("ERROR: Wrong number of arguments");
-            	System.exit(-1);
-	    }
-        } catch (Exception e) {
-        } finally {
-            try {
-                // Delete the temp files at the end
-                Runtime.getRuntime().exec("rm -fr /tmp/tempSoundFiles");
-            } catch (IOException ex) {
+                }
+            } else {
+                throw new AudioMatchingException("Incorrect arguments");
             }
+        } 
+        // In case of erroneous parameters 
+        else {
+            throw new AudioMatchingException("Wrong number of arguments");
         }
     }
 }
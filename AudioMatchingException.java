@@ -0,0 +1,13 @@
+package audiomatching;
+
+// An error that ends the current request, such as a missing or unsupported
+// file. The command line prints the message as "ERROR: <message>" and exits
+// with a non-zero status, the match server sends it back to the client and
+// keeps running
+public class AudioMatchingException extends RuntimeException {
+
+    // Given: what went wrong, without the "ERROR: " prefix
+    public AudioMatchingException(String message) {
+        super(message);
+    }
+}
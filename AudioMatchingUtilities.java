@@ -1,451 +1,1221 @@
 package audiomatching;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import javax.sound.sampled.AudioFileFormat;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
 
 public class AudioMatchingUtilities {
 
-    // Stores the file data information in the frequency domain
-    private ArrayList<double[]> freqData;
-    // Stores the file data information in the time domain
-    private ArrayList<Double> timeData;
     // Stores the audio fingerprints of each processed audio file
-    private final HashMap<String, ArrayList<String>> hashData;
-    // Stores the mapping of file names between actual files and coverted
-    // files stored in the /tmp/tempSoundFiles/ folder
-    private final HashMap<String, String> fileMapping;
+    private final FingerprintStore hashData;
+    // Converts audio files to PCM data
+    private AudioDecoder decoder;
+    // Converts audio files to their fingerprints
+    private Fingerprinter fingerprinter;
+    // Runs the fingerprinting of directories in parallel
+    private final ForkJoinPool pool;
+    // Fingerprints kept between runs, null if no database is used
+    private FingerprintDatabase database;
+    // True if the files fingerprinted are recorded in the database. The
+    // requests of a match server only look their files up, so the queries
+    // of clients don't pile up in the database of the server
+    private final boolean recording;
+    // Fingerprint of the first file seen with given contents, by SHA-1
+    // digest of the contents, so identical files are decoded only once.
+    // Only holds tracks that are also held on the heap elsewhere: entries
+    // of resident files are dropped with the rest of their state, see
+    // forget(), and the other entries live as long as these utilities, a
+    // single run or request
+    private final ConcurrentHashMap<String, CompletableFuture<Track>>
+            contents;
+    // SHA-1 digest of the contents of every file fingerprinted, by
+    // canonical path, until the file is forgotten, see forget()
+    private final ConcurrentHashMap<String, byte[]> digests;
+    // Snapshot of every resident directory, by canonical path. Resident
+    // directories are fingerprinted once and never initialized again, and
+    // their tracks only live in their index, off the heap
+    private final ConcurrentHashMap<String, CatalogSnapshot> residents;
+    // Seconds between two rescans of watched resident directories, 0 if
+    // they are not watched
+    private long watchInterval;
+    // True if files of different lengths are matched by aligning them, so
+    // excerpts match the files they were taken from
+    private boolean partial;
+    // True if files are fingerprinted with landmarks instead of band hashes
+    private boolean landmarks;
+    // True if band hash indexes have a sketch tier, see SketchIndex
+    private boolean sketches;
+    // Most matches reported for a query file against a directory
+    private int maxResults;
+    // Format of the raw PCM frames of live streams
+    private AudioFormat streamFormat;
+    // Most seconds of a live stream before what it plays is reported
+    private double latency;
     // The intensity to which the audio fingerprints are to be matched
     private final int INTENSITY;
     // The maximum difference that can be ignored while matching
     // the audio fingerprints
     private final int THRESHOLD;
-    // The accuracy consideration of the matching function. Presently 70%
+    // The accuracy consideration of the matching function. Presently 70%.
+    // Landmarks have an absolute threshold instead, see LandmarkIndex
     private final double ACCURACY;
-    // Size of each token while tokenizing the audio files
-    private final int TOKEN_SIZE;
-    // Max values for frequency
-    private final int MAX;
-    // The range of frequencies that are considered for fingerprinting
-    private final int[] CONSIDERED_POINTS;
+    // Number of phases a query is hashed at when it is matched at any
+    // alignment, see phases()
+    private static final int PHASES = 8;
 
     // Initialize all the required variables and data structures at the
-    // time of object creation
+    // time of object creation. Directories are fingerprinted on as many
+    // threads as the audiomatching.threads system property asks for, by
+    // default one per available core
     AudioMatchingUtilities() {
-        fileMapping = new HashMap();
-        hashData = new HashMap();
+        this(Integer.getInteger("audiomatching.threads"
+                , Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Given: the number of threads used to fingerprint directories
+    AudioMatchingUtilities(int threads) {
+        hashData = new FingerprintStore();
+        residents = new ConcurrentHashMap();
+        contents = new ConcurrentHashMap();
+        digests = new ConcurrentHashMap();
+        recording = true;
+        maxResults = Integer.MAX_VALUE;
+        streamFormat = new AudioFormat(44100, 16, 2, true, false);
+        latency = 3;
+        decoder = ChainDecoder.standard();
+        fingerprinter = new Fingerprinter(decoder, false);
+        pool = new ForkJoinPool(threads);
         
         INTENSITY = 4;
         THRESHOLD = 5;
         ACCURACY = 0.7;
-        TOKEN_SIZE = 1024;
-        MAX = TOKEN_SIZE;
-        
-        CONSIDERED_POINTS = new int[4];
-        CONSIDERED_POINTS[0] = 128;
-        CONSIDERED_POINTS[1] = 256;
-        CONSIDERED_POINTS[2] = 512;
-        CONSIDERED_POINTS[3] = MAX + 1;
+    }
+
+    // Given: the utilities holding the resident directories
+    // See forRequest()
+    private AudioMatchingUtilities(AudioMatchingUtilities shared) {
+        hashData = new FingerprintStore();
+        residents = shared.residents;
+        contents = new ConcurrentHashMap();
+        digests = new ConcurrentHashMap();
+        decoder = shared.decoder;
+        fingerprinter = shared.fingerprinter;
+        pool = shared.pool;
+        database = shared.database;
+        recording = false;
+        watchInterval = shared.watchInterval;
+        partial = shared.partial;
+        landmarks = shared.landmarks;
+        sketches = shared.sketches;
+        maxResults = shared.maxResults;
+        streamFormat = shared.streamFormat;
+        latency = shared.latency;
+
+        INTENSITY = shared.INTENSITY;
+        THRESHOLD = shared.THRESHOLD;
+        ACCURACY = shared.ACCURACY;
+    }
+
+    // Returns: utilities for a single request of a match server. They share
+    //          the resident directories, the settings, the database and the
+    //          threads of these utilities, but the files the request
+    //          fingerprints, and their digests, are only held by them, so
+    //          they are dropped along with the request instead of piling up
+    //          for the life of the server. The database is only read
+    AudioMatchingUtilities forRequest() {
+        return new AudioMatchingUtilities(this);
     }
 
     // Given: An audio file name.
-    // Processing: Converts the given file to a base format using the 
-    //             decode() method, reads it's data in time domain, converts
-    //             the time domain data to corresponding frequency domain data
-    //             and constructs it's fingerprint
-    // Returns: returns false and prints an error message if file doesn't exist
-    //          returns true if the audio file is properly initialized.
+    // Processing: Constructs the fingerprint of the file using the 
+    //             Fingerprinter and stores it in hashData
+    // Returns: true if the audio file is properly initialized
+    // Throws an AudioMatchingException if the file doesn't exist or is not
+    // supported
     public boolean initAudio(String fileName) {
-        File fileTmp = new File(fileName);
-	String original = fileName;
-        // Initially convert every file to a base format
-        decode(fileName);
+        File file = new File(fileName);
         try {
-            if (fileMapping.containsKey(fileTmp.getCanonicalPath())) {
-                fileName = fileMapping.get(fileTmp.getCanonicalPath());
-                File file = new File(fileName);
-
-                // Check if the file exists
-                if (file.exists()) {
-                    // Check if the file is in WAVE format
-                    if (isWave(fileName)) {
-                        // Read the file to initialize time domain data
-                        readAudio(fileName);
-                        // Convert the time domain data to frequency domain data
-                        convertToFrequency();
-                        // Construct the file's audio fingerprint
-                        getHash(fileName);
-                        // return true if the file is processed properly
-                        return true;
-                    } else {
-                        // Throw an error is the file is not in supported format
-                        System.err.println("ERROR: "
-                                + original + " is not a supported format");
-			System.exit(-1);
-                        return false;
-                    }
-                } else {
-                    // Throw an error if the input file does not exist
-                    System.err.println("ERROR: "
-                            + original + " does not exist or is not supported");
-                    // Exit with a non-zero status
-                    System.exit(-1);
-                    return false;
-                }
-            } else {
-                // Throw an error if the input file is not in correct format
-                System.err.println("ERROR: "
-			    + original + " is not a supported format");
-                System.exit(-1);
-                return false;
-            }
+            return store(file, fingerprint(file));
         } catch (IOException ex) {
+            Metrics.error("fingerprint", ex);
+            return store(file, null);
         }
-        return false;
+    }
+
+    // Given: the name of a database file
+    // Keeps fingerprints in that file between runs: files that are already
+    // in the database and have not changed are not decoded again. The
+    // database only keeps one kind of fingerprint, so setLandmarks() must
+    // be called first.
+    // Throws an AudioMatchingException if the database can't be read
+    public void openDatabase(String fileName) {
+        database = FingerprintDatabase.open(new File(fileName), landmarks);
+    }
+
+    // Writes the fingerprints of all the processed files to the database
+    // opened with openDatabase(), if any
+    public void saveDatabase() {
+        if (database != null) {
+            try {
+                database.save();
+            } catch (IOException ex) {
+                Metrics.error("database", ex);
+                System.err.println("ERROR: Writing fingerprint database");
+            }
+        }
+    }
+
+    // Given: true to turn partial matching on
+    // With partial matching files no longer need to be of the same length to
+    // match. A file matches another if, after shifting it by the best
+    // number of samples, enough of its chunks match, so excerpts and files
+    // with extra leading silence match the complete file. Band hashes only
+    // survive a small fraction of a chunk of misalignment, so the first
+    // file of a pair, or the query of an index, is hashed again at PHASES
+    // phases within a chunk and matched at its best phase, see phases()
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    // Given: true to fingerprint files with landmarks
+    // Landmarks pair the spectral peaks of a file, see Landmarks. Their
+    // hashes are far more selective than the band hashes, so index lookups
+    // touch short posting lists. The peaks are found on overlapping frames,
+    // so files are compared at their best alignment, to the frame, even
+    // without partial matching, and match once enough of their landmarks
+    // line up, see LandmarkIndex. Files are only matched against files
+    // fingerprinted the same way, so this must be set before any file is
+    // initialized
+    public void setLandmarks(boolean landmarks) {
+        this.landmarks = landmarks;
+        fingerprinter = new Fingerprinter(decoder, landmarks);
+    }
+
+    // Given: true to put a sketch tier in front of band hash indexes
+    // Without partial matching a query file is then only compared with the
+    // files whose sketch is similar to its own, instead of every file that
+    // the posting lists of its hashes lead to. This is much faster on large
+    // directories but can very rarely miss a match, see SketchIndex.
+    // Landmark indexes are selective enough already and have no sketches
+    public void setSketches(boolean sketches) {
+        this.sketches = sketches;
+    }
+
+    // Given: the most matches to report for a query file matched against a
+    //        directory, the best ones are kept
+    public void setMaxResults(int maxResults) {
+        this.maxResults = maxResults;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    // Stops the threads that fingerprint directories once these utilities
+    // are no longer used. The command line and the match server keep them
+    // until the JVM exits, callers that create many, such as benchmarks,
+    // close each one
+    void close() {
+        pool.shutdown();
+    }
+
+    // Given: the sample rate, bits per sample and number of channels of the
+    //        raw PCM frames of live streams, which are signed (unsigned for
+    //        8 bits) and little endian
+    public void setStreamFormat(float sampleRate, int bits, int channels) {
+        streamFormat = new AudioFormat(sampleRate, bits, channels, bits > 8
+                , false);
+    }
+
+    // Given: the most seconds of a live stream that can go by before what
+    //        it plays is reported
+    public void setLatency(double latency) {
+        this.latency = latency;
+    }
+
+    // Given: the seconds between two rescans of a watched resident
+    //        directory, 0 to not watch resident directories
+    public void setWatchInterval(long seconds) {
+        watchInterval = seconds;
+    }
+
+    public long getWatchInterval() {
+        return watchInterval;
+    }
+
+    // Given: a decoder
+    // Replaces the decoder used to convert audio files to PCM data
+    public void setDecoder(AudioDecoder decoder) {
+        this.decoder = decoder;
+        fingerprinter = new Fingerprinter(decoder, landmarks);
     }
 
     // Given: A directory name
-    // Returns: -- Returns false and prints an error message if directory
-    //          doesn't exist
-    //          -- Returns true if all the audio files in the directory are
-    //          properly initialized
-    // Process: Initializes every file present in the directory using 
-    //          the initAudio() method
+    // Returns: -- Returns true if all the audio files in the directory are
+    //          properly initialized, or if the directory is resident
+    //          -- Returns false if the thread was interrupted
+    // Process: Fingerprints every file present in the directory in parallel
+    //          on the pool and then stores the results in listing order, so
+    //          errors are reported for the same file as a sequential run
+    // Throws an AudioMatchingException if the directory doesn't exist or one
+    // of its files is not supported
     public boolean initDirectory(String dirName) {
         File directory1 = new File(dirName);
-        boolean flag;
         // Check if the input directory name is actually a directory or not
         if (directory1.isDirectory()) {
+            if (residents.containsKey(canonicalPath(directory1))) {
+                return true;
+            }
             File[] filesInDirectory1 = directory1.listFiles();
+            ArrayList<File> files = new ArrayList();
+            ArrayList<Callable<Track>> tasks = new ArrayList();
             for (File f : filesInDirectory1) {
                 try {
                     if (f.isFile()) {
-                        // Initialize every file in this directory
-                        flag = initAudio(f.getCanonicalPath());
-
-                        if (flag == false) {
-                            return false;
-                        }
+                        final File file = f.getCanonicalFile();
+                        files.add(file);
+                        tasks.add(() -> fingerprint(file));
                     }
                 } catch (IOException ex) {
+                    Metrics.error("listing", ex);
+                }
+            }
+
+            // Fingerprint every file in this directory
+            ArrayList<Future<Track>> results = new ArrayList(
+                    pool.invokeAll(tasks));
+            for (int i = 0; i < files.size(); i++) {
+                Track track;
+                try {
+                    track = results.get(i).get();
+                } catch (ExecutionException ex) {
+                    Metrics.error("fingerprint", ex.getCause());
+                    track = null;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                if (!store(files.get(i), track)) {
+                    return false;
                 }
             }
         } else {
             // Throw an error if the directory is not found
-            System.err.println("ERROR: Directory "+ dirName + " not found");
-            // Exit with a non-zero exit status
-            System.exit(-1);
+            throw new AudioMatchingException(
+                    "Directory " + dirName + " not found");
+        }
+        return true;
+    }
+
+    // Given: A directory name
+    // Initializes the directory and keeps it resident: its fingerprints and
+    // index stay in memory and later calls to initDirectory() and
+    // indexDirectory() reuse them instead of reading the files again
+    public void loadResident(String dirName) {
+        File directory = new File(dirName);
+        // Stamped first, so a file changed while loading is synced again
+        HashMap<String, long[]> stamps = stamps(keys(directory));
+        if (initDirectory(dirName)) {
+            ArrayList<String> keys = keys(directory);
+            residents.put(canonicalPath(directory), new CatalogSnapshot(
+                    index(keys), stamps, digests(keys)));
+            forget(keys);
+        }
+    }
+
+    // Given: the name of a resident directory
+    // Keeps the directory in sync with its files from now on, on a
+    // background thread, see CatalogWatcher. The interval set by
+    // setWatchInterval() must be above 0
+    public void watchResident(String dirName) {
+        new CatalogWatcher(this, dirName, watchInterval).start();
+    }
+
+    // Given: the name of a resident directory
+    // Returns: true if the directory had changed and a new snapshot of it
+    //          was published
+    // Process: the files of the directory are compared, by size and
+    //          modification time, with the ones of its current snapshot.
+    //          Only the new and changed files are fingerprinted, on the
+    //          pool. A new file with the same quick digest as a file that
+    //          disappeared may be that file renamed: if its SHA-1 digest is
+    //          also the same, it keeps the fingerprint of that file instead
+    //          of being fingerprinted again. A new index over the tracks
+    //          then replaces the snapshot in a single step, so matches
+    //          already running keep the snapshot they started with. Files
+    //          that can't be fingerprinted are counted as errors and left
+    //          out until they change again
+    public synchronized boolean syncResident(String dirName) {
+        File directory = new File(dirName);
+        String path = canonicalPath(directory);
+        CatalogSnapshot current = residents.get(path);
+        if (current == null || !directory.isDirectory()) {
+            return false;
+        }
+        ArrayList<String> keys = keys(directory);
+        HashMap<String, long[]> stamps = stamps(keys);
+        ArrayList<File> changed = new ArrayList();
+        for (String key : keys) {
+            if (stamps.containsKey(key) && !Arrays.equals(stamps.get(key)
+                    , current.stamps.get(key))) {
+                changed.add(new File(key));
+            }
+        }
+        if (changed.isEmpty()
+                && stamps.keySet().equals(current.stamps.keySet())) {
             return false;
         }
+
+        // Tracks of the files that disappeared, by quick digest
+        HashMap<Long, Track> gone = new HashMap();
+        for (String key : current.stamps.keySet()) {
+            int id = current.index.find(key);
+            if (!stamps.containsKey(key) && id != -1) {
+                Track track = current.index.getTrack(id);
+                gone.put(track.getMetadata().getDigest(), track);
+            }
+        }
+
+        HashMap<String, Track> found = new HashMap();
+        ArrayList<File> files = new ArrayList();
+        ArrayList<Callable<Track>> tasks = new ArrayList();
+        for (final File file : changed) {
+            try {
+                // The quick digest only names a candidate, different
+                // contents can share it
+                Track renamed = gone.isEmpty() ? null
+                        : gone.remove(TrackMetadata.digest(file));
+                byte[] digest = renamed == null ? null
+                        : current.digests.get(renamed.getName());
+                if (digest != null && Arrays.equals(digest
+                        , FingerprintDatabase.digest(file))) {
+                    Track track = new Track(file.getPath()
+                            , renamed.getHashes(), renamed.getMetadata()
+                            , renamed.getBaseScore());
+                    found.put(file.getPath(), track);
+                    digests.put(file.getPath(), digest);
+                    record(file, track, digest);
+                    continue;
+                }
+            } catch (IOException ex) {
+                Metrics.error("sync", ex);
+            }
+            files.add(file);
+            tasks.add(() -> fingerprint(file));
+        }
+        try {
+            List<Future<Track>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < files.size(); i++) {
+                try {
+                    Track track = results.get(i).get();
+                    if (track != null) {
+                        found.put(files.get(i).getPath(), track);
+                    } else {
+                        Metrics.error("sync", unsupported(files.get(i)));
+                    }
+                } catch (ExecutionException ex) {
+                    Metrics.error("sync", ex.getCause());
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        // Same order as an initial load
+        ArrayList<Track> tracks = new ArrayList();
+        for (String key : keys) {
+            Track track = found.get(key);
+            if (track == null && stamps.containsKey(key)
+                    && Arrays.equals(stamps.get(key)
+                            , current.stamps.get(key))) {
+                int id = current.index.find(key);
+                track = id != -1 ? current.index.getTrack(id) : null;
+            }
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        HashMap<String, byte[]> known = digests(found.keySet());
+        for (String key : keys) {
+            if (!known.containsKey(key) && current.digests.containsKey(key)
+                    && Arrays.equals(stamps.get(key)
+                            , current.stamps.get(key))) {
+                known.put(key, current.digests.get(key));
+            }
+        }
+        residents.put(path, new CatalogSnapshot(newIndex(tracks), stamps
+                , known));
+        forget(found.keySet());
         return true;
     }
 
-    // Given: An audio file's name
-    // Process: Uses the lame script installed on the ccis machine to convert
-    // the given file to a base format (WAVE format) and maps the original
-    // file name with the new file's location (in /tmp/tempSoundFiles/)
-    private void decode(String fileName) {
-        File file = new File(fileName);
+    // Given: canonical paths of files held by the index of a resident
+    //        directory
+    // Drops every other reference to their tracks, so the tracks only live
+    // off the heap
+    private void forget(Collection<String> keys) {
+        HashSet<String> names = new HashSet(keys);
+        for (String key : keys) {
+            hashData.remove(key);
+            digests.remove(key);
+        }
+        contents.values().removeIf(future -> {
+            Track track = future.getNow(null);
+            return track != null && names.contains(track.getName());
+        });
+    }
+
+    // Given: canonical paths of files
+    // Returns: the {size, modification time} of those that are regular
+    //          files, by canonical path
+    private static HashMap<String, long[]> stamps(List<String> keys) {
+        HashMap<String, long[]> stamps = new HashMap();
+        for (String key : keys) {
+            File file = new File(key);
+            if (file.isFile()) {
+                stamps.put(key, new long[] {file.length()
+                        , file.lastModified()});
+            }
+        }
+        return stamps;
+    }
+
+    // Given: canonical paths of fingerprinted files
+    // Returns: the SHA-1 digests of the files that have one, by canonical
+    //          path
+    private HashMap<String, byte[]> digests(Collection<String> keys) {
+        HashMap<String, byte[]> known = new HashMap();
+        for (String key : keys) {
+            byte[] digest = digests.get(key);
+            if (digest != null) {
+                known.put(key, digest);
+            }
+        }
+        return known;
+    }
+
+    // Given: the canonical path of an audio file
+    // Returns: the track of the file if it was initialized, either processed
+    //          or held by the index of a resident directory, or null
+    private Track track(String key) {
+        Track track = hashData.get(key);
+        if (track == null) {
+            for (CatalogSnapshot snapshot : residents.values()) {
+                int id = snapshot.index.find(key);
+                if (id != -1) {
+                    return snapshot.index.getTrack(id);
+                }
+            }
+        }
+        return track;
+    }
+
+    // Given: the name of an initialized directory
+    // Returns: an index over the fingerprints of the files in the directory,
+    //          the one kept in memory if the directory is resident
+    public TrackIndex indexDirectory(String dirName) {
+        File directory = new File(dirName);
+        CatalogSnapshot snapshot = residents.get(canonicalPath(directory));
+        return snapshot != null ? snapshot.index : index(keys(directory));
+    }
+
+    // Given: a directory
+    // Returns: the canonical paths of the files in the directory, in
+    //          listing order
+    private static ArrayList<String> keys(File directory) {
+        ArrayList<String> keys = new ArrayList();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                keys.add(canonicalPath(f));
+            }
+        }
+        return keys;
+    }
+
+    // Given: a file
+    // Returns: the canonical path of the file, or its absolute path if the
+    //          canonical path can't be computed
+    private static String canonicalPath(File file) {
         try {
-            String source = file.getCanonicalPath();
-            String target = "/tmp/tempSoundFiles/" + file.getName();
-            fileMapping.put(source, target);
-            String command = "/course/cs5500f14/bin/lame --decode "
-                    + source + " " + target;
-            // Run the lame script to convert the source file 
-            // to the target file and store it at the mentioned location
-            Runtime.getRuntime().exec(command);
-            // Put the current thread to sleep till the command completes
-            // it's execution
-            Thread.sleep(200);
-        } catch (Exception e) {
-        }
-    }
-
-    // Given: An audio file's name
-    // Reads data from that audio file(time data) and stores it an Array List
-    // for further processing
-    private void readAudio(String fileName) {
+            return file.getCanonicalPath();
+        } catch (IOException ex) {
+            return file.getAbsolutePath();
+        }
+    }
 
+    // Given: An audio file
+    // Returns: the fingerprint of the file along with its base score, taken
+    //          from the database when the file has not changed since it was
+    //          stored, or null if the file is not in a supported format
+    // Process: the base score, the score of the file matched against
+    //          itself, is computed once here so match() never has to.
+    //          Before decoding, the contents of the file are digested, and
+    //          a file with the same contents as one already fingerprinted,
+    //          in this run or in the database, shares its fingerprint. Of
+    //          identical files fingerprinted at the same time, one is
+    //          decoded and the others wait for it
+    private Track fingerprint(File file) throws IOException {
+        Track track = database == null ? null : database.lookup(file);
+        String name = file.getCanonicalPath();
+        if (track != null) {
+            byte[] stored = database.getDigest(name);
+            if (stored != null) {
+                digests.put(name, stored);
+            }
+            return track;
+        }
+        byte[] digest = FingerprintDatabase.digest(file);
+        String key = HexFormat.of().formatHex(digest);
+
+        CompletableFuture<Track> first = contents.get(key);
+        if (first == null) {
+            track = database == null ? null : database.lookup(name, digest);
+            if (track != null) {
+                Metrics.count(Metrics.Counter.DUPLICATES, 1);
+                record(file, track, digest);
+                digests.put(name, digest);
+                return track;
+            }
+            CompletableFuture<Track> mine = new CompletableFuture();
+            first = contents.putIfAbsent(key, mine);
+            if (first == null) {
+                try {
+                    track = fingerprinter.fingerprint(file);
+                    if (track != null) {
+                        int[] hashes = track.getHashes();
+                        track = track.withBaseScore(score(hashes, hashes
+                                , 0));
+                        record(file, track, digest);
+                        digests.put(name, digest);
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    contents.remove(key, mine);
+                    mine.completeExceptionally(ex);
+                    throw ex;
+                }
+                mine.complete(track);
+                if (track == null) {
+                    contents.remove(key, mine);
+                }
+                return track;
+            }
+        }
+
+        // The same contents are, or are being, fingerprinted under another
+        // name
+        Track shared;
         try {
-            timeData = new ArrayList();
-            File file = new File(fileName);
-            AudioInputStream audioInputStream 
-                    = AudioSystem.getAudioInputStream(file);
-            int frameSize = audioInputStream.getFormat().getFrameSize();
-
-            int numBytes = TOKEN_SIZE * frameSize;
-            byte[] timeBytes = new byte[numBytes];
+            shared = first.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fingerprinting " + name);
+        } catch (ExecutionException ex) {
+            throw new IOException("Can't fingerprint " + name, ex.getCause());
+        }
+        if (shared == null) {
+            return null;
+        }
+        Metrics.count(Metrics.Counter.DUPLICATES, 1);
+        track = new Track(name, shared.getHashes(), shared.getMetadata()
+                , shared.getBaseScore());
+        record(file, track, digest);
+        digests.put(name, digest);
+        return track;
+    }
+
+    // Given: a file, its fingerprint and the SHA-1 digest of its contents
+    // Records the fingerprint in the database, if there is one and these
+    // utilities record their files, see recording
+    private void record(File file, Track track, byte[] digest) {
+        if (database != null && recording) {
+            database.put(file, track, digest);
+        }
+    }
+
+    // Given: An audio file and its fingerprint, which is null if the file
+    //        could not be fingerprinted
+    // Returns: true if the fingerprint was stored
+    // Throws an AudioMatchingException if there is no fingerprint
+    private boolean store(File file, Track track) {
+        if (track != null) {
+            hashData.put(track);
+            return true;
+        } else if (file.exists()) {
+            // Throw an error is the file is not in supported format
+            throw unsupported(file);
+        } else {
+            // Throw an error if the input file does not exist
+            throw new AudioMatchingException(
+                    file.getPath() + " does not exist or is not supported");
+        }
+    }
+
+    // Given: an existing file that could not be decoded
+    // Returns: the error to report for it. MP3 files need a decoder that
+    //          is not part of the JDK, so the error says how to install one
+    private static AudioMatchingException unsupported(File file) {
+        if (file.getName().toLowerCase().endsWith(".mp3")) {
+            return new AudioMatchingException(file.getPath()
+                    + " can't be decoded. MP3 files need an MP3 provider"
+                    + " such as mp3spi on the class path, or a lame"
+                    + " executable set with -Daudiomatching.lame");
+        }
+        return new AudioMatchingException(
+                file.getPath() + " is not a supported format");
+    }
+
+    // Given: names of initialized audio files
+    // Returns: an inverted index over the fingerprints of those files, with
+    //          the files in the given order. Names that were never
+    //          initialized are skipped
+    public TrackIndex index(List<String> keys) {
+        ArrayList<Track> tracks = new ArrayList();
+        for (String key : keys) {
+            Track track = track(key);
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+        return newIndex(tracks);
+    }
+
+    // Given: fingerprinted tracks
+    // Returns: the index that suits the kind of fingerprint in use
+    private TrackIndex newIndex(ArrayList<Track> tracks) {
+        if (landmarks) {
+            return new LandmarkIndex(tracks);
+        }
+        HashIndex index = new HashIndex(tracks, INTENSITY, THRESHOLD);
+        return sketches ? new SketchIndex(tracks, index) : index;
+    }
+
+    // Given: a source of raw PCM frames, a directory name and where to
+    //        print the matches
+    // Matches the source against the files of the directory, see below.
+    // The source is "-" for the standard input, "@line" for the default
+    // capture line of the system, or the name of a file such as a FIFO
+    // Throws an AudioMatchingException if the source can't be opened
+    public void matchStream(String source, String dirName, PrintStream out)
+            throws IOException {
+        InputStream in;
+        String name;
+        if (source.equals("-")) {
+            in = System.in;
+            name = "stdin";
+        } else if (source.equals("@line")) {
             try {
-                // Read the audio file in small chunks
-                while (audioInputStream.read(timeBytes) != -1) {
-                    // Add the chunk to the ArrayList holding time data
-                    for (Byte p : timeBytes) {
-                        timeData.add(p.doubleValue());
-                    }
+                TargetDataLine line = AudioSystem.getTargetDataLine(
+                        streamFormat);
+                line.open(streamFormat);
+                line.start();
+                in = new AudioInputStream(line);
+            } catch (LineUnavailableException | IllegalArgumentException ex) {
+                throw new AudioMatchingException("No capture line for "
+                        + streamFormat);
+            }
+            name = "line";
+        } else if (new File(source).exists()) {
+            in = new FileInputStream(source);
+            name = source;
+        } else {
+            throw new AudioMatchingException(source + " does not exist");
+        }
+        try {
+            matchStream(name, in, dirName, out);
+        } finally {
+            if (in != System.in) {
+                in.close();
+            }
+        }
+    }
+
+    // Given: the name of a live stream, the stream of raw PCM frames in the
+    //        format set by setStreamFormat(), a directory name and where to
+    //        print the matches
+    // Identifies what the stream plays among the files of the directory,
+    // reporting every new match within the latency set by setLatency(), until
+    // the stream ends. See StreamMatcher
+    // Throws an AudioMatchingException with landmarks, streams are matched
+    // with band hashes, or if the format is not supported
+    public void matchStream(String name, InputStream in, String dirName
+            , PrintStream out) throws IOException {
+        if (landmarks) {
+            throw new AudioMatchingException(
+                    "Live streams can't be matched with landmarks");
+        }
+        if (initDirectory(dirName)) {
+            int budget = (int) (latency * streamFormat.getSampleRate()
+                    / fingerprinter.getTokenSize());
+            StreamMatcher matcher = new StreamMatcher(this
+                    , indexDirectory(dirName), fingerprinter, name, budget);
+            PcmReader reader;
+            try {
+                reader = matcher.reader(in, streamFormat);
+            } catch (IOException ex) {
+                throw new AudioMatchingException(streamFormat
+                        + " is not a supported format");
+            }
+            matcher.run(reader, out);
+        }
+    }
+
+    // Given: the name of an initialized audio file, an index over other
+    //        initialized files and the most results wanted
+    // Returns: the indexed files that match the given file, best score
+    //          first, at most k of them
+    // Process: without partial matching only the indexed files of the same
+    //          duration as the given file can match it, so the candidates
+    //          are restricted to that bucket, and there are none at all if
+    //          it is empty. The remaining candidates found by the index are
+    //          sorted by the highest score they could reach, the smaller
+    //          of the two base scores, and scored in that order. The best
+    //          results so far are kept in a TopMatches heap, and the scan
+    //          stops as soon as the next candidate could not even tie with
+    //          the weakest of them
+    // With partial matching every phase of the given file is queried, see
+    // phases(), and every indexed file ranks by the best result of all the
+    // phases
+    public List<MatchResult> query(String key, TrackIndex index, int k) {
+        Track track = track(key);
+        if (track == null) {
+            return new ArrayList();
+        }
+        if (!partial || k <= 0) {
+            return query(track, index, k, partial);
+        }
+        // A file in the top K of all the phases is in the top K of its best
+        // phase, so the top K of every phase is all it takes
+        HashMap<Integer, MatchResult> best = new HashMap();
+        for (Track phase : phases(track)) {
+            for (MatchResult result : query(phase, index, k, true)) {
+                int id = index.find(result.getName());
+                MatchResult kept = best.get(id);
+                if (kept == null || result.getScore() > kept.getScore()) {
+                    best.put(id, result);
                 }
-                audioInputStream.close();
-            } catch (Exception ex) {
-                System.err.println("ERROR: Reading file");
-		System.exit(-1);
-            }
-        } catch (UnsupportedAudioFileException e) {
-            System.err.println("ERROR: Reading file");
-	    System.exit(-1);
-        } catch (IOException e) {
-            System.err.println("ERROR: Reading file");
-	    System.exit(-1);
-        }
-    }
-
-    // Divides time data into chunks of specific length and converts them into
-    // frequency domain data using Fast Fourier Transformation. Frequency 
-    // domain data is stored in the ArrayList freqData for further processing
-    private void convertToFrequency() {
-        FFT fft = new FFT(MAX);
-        double[] timeBytes;
-        timeBytes = toDoubleArray(timeData);
-        freqData = new ArrayList();
-
-        final int totalSize = timeBytes.length;
-        
-        int noOfTokens = totalSize / TOKEN_SIZE;
-        // Run fast fourier transformation after forming chunks from the time
-        // domain data
-        for (int tokenNumber = 0; tokenNumber < noOfTokens; tokenNumber++) {
-            double[] complex_re = new double[TOKEN_SIZE];
-            double[] complex_im = new double[TOKEN_SIZE];
-
-            // Put the real part as the time domain information and 
-            // imaginary part as 0 and give this input to fft
-            for (int i = 0; i < TOKEN_SIZE; i++) {
-                complex_re[i] = timeBytes[(tokenNumber * TOKEN_SIZE) + i];
-                complex_im[i] = 0;
-            }
-            // Run fast fourier transform on the given chunk to get the
-            // corresponding frequency domain data
-            fft.fft(complex_re, complex_im);
-            // Take the real part of that data and add the chunk to the
-            // ArrayList holding frequency domain data
-            freqData.add(complex_re);
-        }
-    }
-
-    // Given: an array list of Double data
-    // Returns: a primitive array of double datatype after copying all data 
-    //          from the given array list
-    private double[] toDoubleArray(ArrayList<Double> timeData) {
-        int size = timeData.size();
-        double array[] = new double[size];
-        int i = 0;
-        for (Double p : timeData) {
-            array[i++] = p;
-        }
-        return array;
-    }
-
-    // Given: An audio file's name
-    // Generates hash code for all chunks by generating a string of the points
-    // having highest magnitude between the considered points and taking a
-    // hash code of that string
-    // The hash code for each file is stored in a HashMap called hashData
-    // The key for the HashMap is the file name and it's value is an ArrayList
-    // of it's fingerpint data
-    private void getHash(String fileName) {
-        int[] consideredPoints = new int[CONSIDERED_POINTS.length];
-        double[] maxScores = new double[CONSIDERED_POINTS.length];
-        hashData.put(fileName, new ArrayList());
-
-        for (int i = 0; i < CONSIDERED_POINTS.length; i++) {
-            consideredPoints[i] = 0;
-            maxScores[i] = 0;
-        }
-
-        // Take every slice of data from the frequency domain
-        for (double[] slice : freqData) {
-            for (int i = 0; i < MAX - 1; i++) {
-                double mag = Math.log(slice[i] + 1);
-                
-                // Calculate the range number among the considered 
-                // frequency ranges
-                int pointNumber = getPointNumber(i);
-                
-                // Get the max values for every considered frequency range
-                if (mag > maxScores[pointNumber]) {
-                    maxScores[pointNumber] = mag;
-                    consideredPoints[pointNumber] = i;
+            }
+        }
+        TopMatches top = new TopMatches(k);
+        for (Integer id : best.keySet()) {
+            MatchResult result = best.get(id);
+            top.offer(id, result.getScore(), result.getOffset()
+                    , result.getConfidence());
+        }
+        return results(top, index);
+    }
+
+    // Given: a scored track, which doesn't need to be initialized, an index
+    //        over initialized files, the most results wanted, and true to
+    //        match the track at its best alignment whatever its length, as
+    //        with partial matching
+    // Returns: the indexed files that match the track, see query() above
+    List<MatchResult> query(Track track, TrackIndex index, int k
+            , boolean shifted) {
+        ArrayList<MatchResult> results = new ArrayList();
+        if (k <= 0) {
+            return results;
+        }
+        long started = Metrics.start();
+        int[] found;
+        if (shifted) {
+            found = index.search(track.getHashes(), track.getBaseScore()
+                    , ACCURACY);
+        } else {
+            int[] bucket = index.withDuration(track.getDuration());
+            Metrics.count(Metrics.Counter.SKIPPED_PAIRS
+                    , index.size() - bucket.length);
+            if (landmarks) {
+                // Landmarks are matched at their best alignment, and the
+                // search has found it
+                found = bucket.length == 0 ? bucket
+                        : withIds(index.search(track.getHashes()
+                                , track.getBaseScore(), ACCURACY), bucket);
+            } else {
+                int[] ids = bucket.length == 0 ? bucket
+                        : TrackTable.intersect(index.candidates(
+                                track.getHashes(), track.getBaseScore()
+                                , ACCURACY), bucket);
+                found = new int[2 * ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    found[2 * i] = ids[i];
                 }
             }
-            String line = "";
-            // Construct a string from all the considered points for the 
-            // given chunk
-            for (int i = 0; i < CONSIDERED_POINTS.length; i++) {
-                line += consideredPoints[i] + "";
+        }
+
+        // Order the candidates by their bound, highest first, packing the
+        // bound and the position of the candidate in a long
+        long[] order = new long[found.length / 2];
+        for (int i = 0; i < order.length; i++) {
+            double base = Math.min(track.getBaseScore()
+                    , index.getBaseScore(found[2 * i]));
+            order[i] = (long) Math.max(0, base) << 32
+                    | (Integer.MAX_VALUE - i);
+        }
+        Arrays.sort(order);
+
+        TopMatches top = new TopMatches(k);
+        for (int j = order.length - 1; j >= 0; j--) {
+            int i = Integer.MAX_VALUE - (int) order[j];
+            if (top.isFull() && (order[j] >>> 32) < top.minScore()) {
+                Metrics.count(Metrics.Counter.SKIPPED_PAIRS, j + 1);
+                break;
+            }
+            // Once the heap is full a result must also beat its weakest
+            double floor = top.isFull() ? top.minScore()
+                    : Double.NEGATIVE_INFINITY;
+            MatchResult result = compare(track, index.getTrack(found[2 * i])
+                    , found[2 * i + 1], floor, false, shifted);
+            if (result != null) {
+                top.offer(found[2 * i], result.getScore()
+                        , result.getOffset(), result.getConfidence());
             }
-            // Add the audio
-            hashData.get(fileName).add(line.hashCode() + "");
         }
+
+        results = results(top, index);
+        Metrics.stop(Metrics.Stage.QUERY, started);
+        return results;
+    }
+
+    // Given: pairs of (track id, delay) in ascending order of id, and track
+    //        ids in ascending order
+    // Returns: the pairs of the tracks among those ids
+    private static int[] withIds(int[] alignments, int[] ids) {
+        int[] result = new int[alignments.length];
+        int size = 0;
+        for (int i = 0; i < alignments.length; i += 2) {
+            if (Arrays.binarySearch(ids, alignments[i]) >= 0) {
+                result[size++] = alignments[i];
+                result[size++] = alignments[i + 1];
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    // Given: the best matches of a query and the index they were found in
+    // Returns: the matches, best score first, see TopMatches.sort()
+    private static ArrayList<MatchResult> results(TopMatches top
+            , TrackIndex index) {
+        ArrayList<MatchResult> results = new ArrayList();
+        top.sort();
+        for (int slot = 0; slot < top.size(); slot++) {
+            results.add(new MatchResult(index.getName(top.getId(slot))
+                    , top.getScore(slot), top.getOffset(slot)
+                    , top.getConfidence(slot)));
+        }
+        return results;
     }
 
     // Given: names of two audio files.
     // Performs matching on those files by matching the generated hash codes of 
     // all chunks and prints appropriate results
-    // Process: Initially a base score is generated by matching the files with
-    // themselves and the lowest score is taken as the base score. Then the
+    // Note: compare() decides whether the files match, stopping as soon as
+    // the decision is known
+    public void match(String key1, String key2) {
+        match(key1, key2, System.out);
+    }
+
+    // Given: names of two audio files and where to print the result
+    // Same as match() above, printing the MATCH line to the given stream
+    public void match(String key1, String key2, PrintStream out) {
+        MatchResult result = compare(key1, key2, true);
+        if (result != null) {
+            out.println(result.format(key1));
+        }
+    }
+
+    // Given: names of two audio files
+    // Returns: the result of the second file matched against the first one,
+    //          or null if they don't match
+    // Process: The base score of each file, computed once when the file was
+    // fingerprinted by matching it with itself, is looked up and the lowest
+    // of the two is taken as the base score. Then the
     // score is calculated by matching both files with each other and match
     // is judged by considering the scores and the accuracy value mentioned 
-    // by the ACCURACY parameter
+    // by the ACCURACY parameter, or the landmarks they must have in common,
+    // see LandmarkIndex.required(). With partial matching the files don't
+    // need to be of the same length, and with partial matching or landmarks
+    // they are compared at their best alignment
     // Note: The matchHelper() function is used to calculate the scores
-    public void match(String key1, String key2) {
-        String key1Old = key1;
-        String key2Old = key2;
-        if (fileMapping.containsKey(key1) && fileMapping.containsKey(key2)) {
-            key1 = fileMapping.get(key1);
-            key2 = fileMapping.get(key2);
-            if (isLengthSame(key1, key2)) {
-                // Get the highest score for file1
-                double score1 = matchHelper(key1, key1, INTENSITY, THRESHOLD);
-                // Get the highest score for file2
-                double score2 = matchHelper(key2, key2, INTENSITY, THRESHOLD);
-                double finalScore, percentScore, baseScore;
-
-                // Initialize the base score as the minimum from the two
-                // highest scores
-                if (score1 <= score2) {
-                    baseScore = score1;
-                } else {
-                    baseScore = score2;
-                }
+    public MatchResult compare(String key1, String key2) {
+        return compare(key1, key2, false);
+    }
 
-                // Match the files with each other and get the final score
-                finalScore = matchHelper(key1, key2, INTENSITY, THRESHOLD);
-                
-                // Precent score lowers down the base score based on accuracy
-                percentScore = baseScore * ACCURACY;
-
-                // If the final score is greater or equal to the percent score
-                // then print match
-                if (finalScore >= percentScore) {
-                    if (key1Old.contains("/")) {
-                        key1Old = key1Old
-                                .substring(key1Old.lastIndexOf("/") + 1);
-                    }
-                    if (key2Old.contains("/")) {
-                        key2Old = key2Old
-                                .substring(key2Old.lastIndexOf("/") + 1);
-                    }
-                    System.out.println("MATCH " + key1Old + " " + key2Old);
+    // Given: names of two audio files, and true if only the decision is
+    //        needed
+    // Returns: the result of compare() above, or null if they don't match
+    // Process: scoring stops as soon as the files can no longer reach the
+    //          required score. When only the decision is needed it also
+    //          stops as soon as they have reached it, and the score of the
+    //          result is then only a lower bound. With partial matching
+    //          every phase of the first file, see phases(), is aligned with
+    //          the second file and scored, and the best one is kept. The
+    //          first file as it is comes first, so when only the decision
+    //          is needed a match at the first phase needs no other.
+    //          Landmarks have a single phase, and files of the same length
+    //          are aligned without partial matching as well
+    private MatchResult compare(String key1, String key2
+            , boolean decideOnly) {
+        Track track1 = track(key1);
+        Track track2 = track(key2);
+        if (track1 == null || track2 == null) {
+            return null;
+        }
+        if (!partial && (!landmarks || !isLengthSame(track1, track2))) {
+            return compare(track1, track2, 0, Double.NEGATIVE_INFINITY
+                    , decideOnly, false);
+        }
+        ArrayList<Track> tracks = new ArrayList();
+        tracks.add(track2);
+        TrackIndex index = newIndex(tracks);
+        MatchResult best = compare(track1, track2, align(track1, index)
+                , Double.NEGATIVE_INFINITY, decideOnly, partial);
+        if (best != null && decideOnly) {
+            return best;
+        }
+        Track[] phases = phases(track1);
+        for (int phase = 1; phase < phases.length; phase++) {
+            // A later phase must do better
+            double floor = best == null ? Double.NEGATIVE_INFINITY
+                    : Math.nextUp(best.getScore());
+            MatchResult result = compare(phases[phase], track2
+                    , align(phases[phase], index), floor, decideOnly
+                    , partial);
+            if (result != null) {
+                best = result;
+                if (decideOnly) {
+                    break;
                 }
             }
         }
+        return best;
     }
 
-    // Given: names of two audio files along with the values of 
-    //        intensity(power) and threshold(offset)
-    // Generates a score which tells how many chunks are matching in those 
-    // audio files. It is done by ignoring as many last digits as specified by
-    // the power parameter and by keeping a particular threshold using the 
-    // offset parameter
-    private double matchHelper(String key1, String key2
-            , int power, int offset) {
-        // Get the audio fingerprint of file1
-        ArrayList<String> hash1 = hashData.get(key1);
-        // Get the audio fingerprint of file2
-        ArrayList<String> hash2 = hashData.get(key2);
-        double first;
-        double second;
-        double high, low;
-        double score = 0;
-        int size = 0;
-
-        if (hash1.size() < hash2.size()) {
-            size = hash1.size();
+    // Given: two scored tracks, the arguments of compare() above, and true
+    //        if the tracks don't need to be of the same length
+    // Returns: the result of compare() above for those tracks
+    private MatchResult compare(Track track1, Track track2, int delay
+            , double floor, boolean decideOnly, boolean shifted) {
+        long checked = Metrics.start();
+        boolean comparable = shifted || isLengthSame(track1, track2);
+        Metrics.stop(Metrics.Stage.IS_LENGTH_SAME, checked);
+        if (!comparable) {
+            Metrics.count(Metrics.Counter.SKIPPED_PAIRS, 1);
         } else {
-            size = hash2.size();
-        }
+            // Get the highest score for file1
+            double score1 = track1.getBaseScore();
+            // Get the highest score for file2
+            double score2 = track2.getBaseScore();
+            double finalScore, percentScore, baseScore;
 
-        // Match each fingerprint values of both the files with each other
-        // using the power and offset parameters to compute a final match score
-        for (int i = 0; i < size; i++) {
-            first = Double.parseDouble(hash1.get(i));
-            second = Double.parseDouble(hash2.get(i));
+            // Initialize the base score as the minimum from the two
+            // highest scores
+            if (score1 <= score2) {
+                baseScore = score1;
+            } else {
+                baseScore = score2;
+            }
 
-            first = (double) (first / Math.pow(10, power));
-            second = (double) (second / Math.pow(10, power));
+            // Precent score lowers down the base score based on accuracy.
+            // Landmarks need a number of them in common instead
+            percentScore = landmarks ? LandmarkIndex.required(baseScore)
+                    : baseScore * ACCURACY;
 
-            if (first >= second) {
-                high = first;
-                low = second;
-            } else {
-                high = second;
-                low = first;
+            // Match the files with each other and get the final score
+            MatchEvent event = MatchEvent.start();
+            long started = Metrics.start();
+            ChunkScore scored = score(track1.getHashes(), track2.getHashes()
+                    , delay, Math.max(percentScore, floor), decideOnly);
+            finalScore = scored.score;
+            Metrics.stop(Metrics.Stage.MATCH_HELPER, started);
+            Metrics.count(Metrics.Counter.COMPARISONS, 1);
+
+            // If the final score is greater or equal to the percent score
+            // then it is a match
+            boolean matched = finalScore >= percentScore
+                    && finalScore >= floor;
+            if (event != null && event.shouldCommit()) {
+                event.query = track1.getName();
+                event.track = track2.getName();
+                event.delay = delay;
+                event.score = finalScore;
+                event.required = Math.max(percentScore, floor);
+                event.examined = scored.examined;
+                event.matched = matched;
+                event.commit();
             }
+            if (matched) {
+                double confidence = baseScore > 0
+                        ? finalScore / baseScore : 1;
+                return new MatchResult(track2.getName(), finalScore, delay
+                        , confidence);
+            }
+        }
+        return null;
+    }
 
-            if ((int) (high - low) <= offset) {
-                score++;
+    // Given: the track of a file and an index over the track of another one
+    // Returns: the delay of the other file against the first one that
+    //          makes the most chunks match, see TrackIndex.search()
+    private int align(Track track, TrackIndex index) {
+        int[] found = index.search(track.getHashes(), track.getBaseScore()
+                , ACCURACY);
+        // Without any alignment good enough to match, any delay will do
+        return found.length > 0 ? found[1] : 0;
+    }
+
+    // Given: the track of a file
+    // Returns: the track, followed by the file hashed at the other phases
+    //          of a chunk, see Fingerprinter.fingerprintPhases(), each with
+    //          its own base score. One of them is within 1 / (2 * PHASES)
+    //          of a chunk of the alignment of any other recording of the
+    //          same sound. Landmarks don't depend on where the chunks start,
+    //          and a file that can no longer be read has no other phase, so
+    //          only the track is returned for those
+    private Track[] phases(Track track) {
+        int[][] hashes = null;
+        if (!landmarks) {
+            try {
+                hashes = fingerprinter.fingerprintPhases(
+                        new File(track.getName()), PHASES);
+            } catch (IOException ex) {
+                Metrics.error("fingerprint", ex);
             }
         }
-        // return the computed score
-        return score;
+        if (hashes == null) {
+            return new Track[] {track};
+        }
+        Track[] phases = new Track[hashes.length];
+        phases[0] = track;
+        for (int phase = 1; phase < phases.length; phase++) {
+            phases[phase] = new Track(track.getName(), hashes[phase]
+                    , track.getMetadata(), score(hashes[phase]
+                            , hashes[phase], 0));
+        }
+        return phases;
     }
 
-    // Given: an index value of a chunk
-    // Returns: the frequency range in which it belongs
-    private int getPointNumber(int index) {
-        int i = 0;
-        while (CONSIDERED_POINTS[i] < index) {
-            i++;
+    // Given: the audio fingerprints of two files and the delay of the second
+    //        one against the first one
+    // Returns: the score of the two files with the kind of fingerprint in
+    //          use, the number of landmarks or chunks they have in common
+    private double score(int[] hash1, int[] hash2, int delay) {
+        return score(hash1, hash2, delay, Double.NEGATIVE_INFINITY, false)
+                .score;
+    }
+
+    // Given: the audio fingerprints of two files, the delay of the second
+    //        one against the first one, the score required to match and
+    //        true if only the decision is needed
+    // Returns: the score of the two files as bounded by matchHelper().
+    //          Landmark scores are a single merge and are always exact,
+    //          every landmark of the first file counting as examined
+    private ChunkScore score(int[] hash1, int[] hash2, int delay
+            , double required, boolean decideOnly) {
+        if (landmarks) {
+            return new ChunkScore((int) LandmarkIndex.score(hash1, hash2
+                    , delay), hash1.length);
         }
-        return i;
+        return matchHelper(hash1, hash2, delay, INTENSITY, THRESHOLD
+                , required, decideOnly);
     }
 
-    // Given: an audio file name
-    // Returns: true if the file is a WAVE file else it will return false
-    private boolean isWave(String fileName) {
-        File inFile = new File(fileName);
+    // Given: the audio fingerprints of two files along with the values of 
+    //        intensity(power) and threshold(offset)
+    // Returns: the score of the two files compared chunk by chunk, see below
+    static double matchHelper(int[] hash1, int[] hash2
+            , int power, int offset) {
+        return matchHelper(hash1, hash2, 0, power, offset);
+    }
 
-        try {
-            AudioFileFormat audioFileFormat 
-                    = AudioSystem.getAudioFileFormat(inFile);
-            return audioFileFormat.getType()
-                    .toString().equalsIgnoreCase("WAVE");
-        } catch (IOException ex) {
-        } catch (UnsupportedAudioFileException ex) {
+    // Given: the audio fingerprints of two files, the delay of the second
+    //        one against the first one, and the values of intensity(power)
+    //        and threshold(offset)
+    // Generates a score which tells how many chunks are matching in those 
+    // audio files when chunk i of the first file is compared with chunk
+    // i + delay of the second one. Two chunks match if their hash codes
+    // still differ by at most offset after ignoring as many last digits as
+    // specified by the power parameter, that is if they differ by less than
+    // (offset + 1) * 10^power. Only integer arithmetic on the stored
+    // hash codes is used, nothing is parsed or allocated
+    static double matchHelper(int[] hash1, int[] hash2, int delay
+            , int power, int offset) {
+        return matchHelper(hash1, hash2, delay, power, offset
+                , Double.NEGATIVE_INFINITY, false).score;
+    }
+
+    // Given: the arguments of matchHelper() above, the score required to
+    //        match, and true to stop as soon as that score is reached
+    // Returns: the score of matchHelper() above, unless it stopped early:
+    //          -- once the chunks left can't lift the score to the required
+    //          one, the score so far is returned, which is below it
+    //          -- with decideOnly, once the required score is reached, the
+    //          score so far is returned, which is at least the required one
+    //          Either way the returned score gives the right decision,
+    //          and it comes with the number of chunks compared, which is
+    //          also counted in Metrics next to the comparisons
+    static ChunkScore matchHelper(int[] hash1, int[] hash2, int delay
+            , int power, int offset, double required, boolean decideOnly) {
+        long tolerance = offset + 1;
+        int score = 0;
+        int start = Math.max(0, -delay);
+        int end = Math.min(hash1.length, hash2.length - delay);
+        // Scores are whole numbers of chunks, so reaching the required score
+        // means reaching need, and the scan is hopeless after more than
+        // allowed chunks failed to match
+        int need = (int) Math.max(0, Math.min(Math.ceil(required)
+                , Integer.MAX_VALUE));
+        long allowed = (long) Math.max(0, end - start) - need;
+        int misses = 0;
+
+        for (int i = 0; i < power; i++) {
+            tolerance *= 10;
         }
-        return false;
+
+        // Match each fingerprint values of both the files with each other
+        // using the power and offset parameters to compute a final match score
+        int i = start;
+        for (; i < end && !(decideOnly && score >= need); i++) {
+            if (Math.abs((long) hash1[i] - hash2[i + delay]) < tolerance) {
+                score++;
+            } else if (++misses > allowed) {
+                i++;
+                break;
+            }
+        }
+        int examined = Math.max(0, i - start);
+        Metrics.count(Metrics.Counter.SCORED_CHUNKS, examined);
+        // return the computed score
+        return new ChunkScore(score, examined);
     }
 
-    // Given: names of two audio files
+    // Given: two fingerprinted audio files
     // Returns: true if they are of same length (in seconds) else false
-    private boolean isLengthSame(String key1, String key2) {
-        File file1 = new File(key1);
-        File file2 = new File(key2);
+    private boolean isLengthSame(Track track1, Track track2) {
+        double durationInSecondsFile1 = track1.getDuration();
+        double durationInSecondsFile2 = track2.getDuration();
 
-        try {
-            AudioInputStream inputStream 
-                    = AudioSystem.getAudioInputStream(file1);
-            AudioFormat format = inputStream.getFormat();
-            long frames = inputStream.getFrameLength();
-            double durationInSecondsFile1 
-                    = (frames + 0.0) / format.getFrameRate();
-
-            inputStream = AudioSystem.getAudioInputStream(file2);
-            format = inputStream.getFormat();
-            frames = inputStream.getFrameLength();
-            double durationInSecondsFile2 
-                    = (frames + 0.0) / format.getFrameRate();
-
-            return (durationInSecondsFile1 == durationInSecondsFile2);
-
-        } catch (UnsupportedAudioFileException ex) {
-        } catch (IOException ex) {
-        }
-        return false;
+        return (durationInSecondsFile1 == durationInSecondsFile2);
     }
 }
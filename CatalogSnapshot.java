@@ -0,0 +1,28 @@
+package audiomatching;
+
+import java.util.HashMap;
+
+// What is known of a resident directory at one point in time: the index
+// over its tracks, and the size, modification time and digest of each of
+// its files.
+// A snapshot is never modified once published. A newer one replaces it as
+// a whole, so a match holding a snapshot keeps a consistent view of the
+// directory until it ends
+final class CatalogSnapshot {
+
+    // Index over the tracks of the directory
+    final TrackIndex index;
+    // {size, modification time} of every file of the directory, by
+    // canonical path, including the files that could not be fingerprinted
+    final HashMap<String, long[]> stamps;
+    // SHA-1 digest of the contents of every indexed file, by canonical path,
+    // so a file that reappears under another name can be recognized
+    final HashMap<String, byte[]> digests;
+
+    CatalogSnapshot(TrackIndex index, HashMap<String, long[]> stamps
+            , HashMap<String, byte[]> digests) {
+        this.index = index;
+        this.stamps = stamps;
+        this.digests = digests;
+    }
+}
@@ -0,0 +1,91 @@
+package audiomatching;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps a resident directory in sync with its files on a background
+// thread. The directory is watched with a WatchService, and once a burst of
+// events has settled, such as a file being copied in, the directory is
+// synced, see AudioMatchingUtilities.syncResident(). Events can be lost,
+// coalesced or not supported at all by the file system, so the directory is
+// also synced every interval when nothing happens. A sync of a directory
+// that has not changed only lists it
+final class CatalogWatcher implements Runnable {
+
+    // Milliseconds without events before a burst is considered over
+    private static final long QUIET = 500;
+
+    private final AudioMatchingUtilities utils;
+    private final String dirName;
+    // Seconds between two rescans
+    private final long interval;
+
+    // Given: the utilities holding the directory, the name of a resident
+    //        directory, and the seconds between two rescans
+    CatalogWatcher(AudioMatchingUtilities utils, String dirName
+            , long interval) {
+        this.utils = utils;
+        this.dirName = dirName;
+        this.interval = interval;
+    }
+
+    // Starts watching on a daemon thread
+    void start() {
+        Thread thread = new Thread(this, "catalog-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void run() {
+        WatchService watcher = open();
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                if (watcher == null) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(interval));
+                } else {
+                    WatchKey key = watcher.poll(interval, TimeUnit.SECONDS);
+                    while (key != null) {
+                        key.pollEvents();
+                        if (!key.reset()) {
+                            // The directory itself is gone, keep rescanning
+                            watcher.close();
+                            watcher = null;
+                            break;
+                        }
+                        key = watcher.poll(QUIET, TimeUnit.MILLISECONDS);
+                    }
+                }
+                utils.syncResident(dirName);
+            } catch (InterruptedException ex) {
+                return;
+            } catch (IOException | RuntimeException ex) {
+                Metrics.error("sync", ex);
+                if (ex instanceof ClosedWatchServiceException) {
+                    watcher = null;
+                }
+            }
+        }
+    }
+
+    // Returns: a watch service registered on the directory, or null if the
+    //          file system can't watch it and only rescans are possible
+    private WatchService open() {
+        try {
+            WatchService watcher = FileSystems.getDefault().newWatchService();
+            Paths.get(dirName).register(watcher
+                    , StandardWatchEventKinds.ENTRY_CREATE
+                    , StandardWatchEventKinds.ENTRY_DELETE
+                    , StandardWatchEventKinds.ENTRY_MODIFY);
+            return watcher;
+        } catch (IOException | UnsupportedOperationException ex) {
+            Metrics.error("watch", ex);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+
+// Tries a list of decoders in order and uses the first one that supports
+// the given file
+public class ChainDecoder implements AudioDecoder {
+
+    private final AudioDecoder[] decoders;
+
+    ChainDecoder(AudioDecoder... decoders) {
+        this.decoders = decoders;
+    }
+
+    // Returns: the default chain. WAVE files are mapped directly, anything
+    //          else goes through the installed javax.sound providers and
+    //          finally through lame
+    static ChainDecoder standard() {
+        return new ChainDecoder(new WaveDecoder(), new SampledDecoder()
+                , new LameDecoder());
+    }
+
+    @Override
+    public PcmReader open(File file, int tokenSize) throws IOException {
+        for (AudioDecoder decoder : decoders) {
+            PcmReader reader = decoder.open(file, tokenSize);
+            if (reader != null) {
+                return reader;
+            }
+        }
+        return null;
+    }
+}
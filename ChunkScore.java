@@ -0,0 +1,18 @@
+package audiomatching;
+
+// The score of two fingerprints compared chunk by chunk, as returned by the
+// bounded AudioMatchingUtilities.matchHelper(), along with the number of
+// chunks it compared to get there. That is fewer than the chunks the two
+// fingerprints have in common when the scan stopped early
+final class ChunkScore {
+
+    // Number of chunks that matched
+    final int score;
+    // Number of chunks compared
+    final int examined;
+
+    ChunkScore(int score, int examined) {
+        this.score = score;
+        this.examined = examined;
+    }
+}
@@ -1,5 +1,8 @@
 package audiomatching;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 /*
  *  Copyright 2006-2007 Columbia University.
  *
@@ -23,6 +26,10 @@ package audiomatching;
  */
 public class FFT {
 
+    // Transforms already planned, by size
+    private static final ConcurrentHashMap<Integer, FFT> PLANS
+            = new ConcurrentHashMap();
+
     int n, m;
 
     // Lookup tables.  Only need to recompute when size of FFT changes.
@@ -31,6 +38,37 @@ public class FFT {
 
     double[] window;
 
+    // Pairs of indices swapped by the bit-reverse permutation, one after
+    // the other, and the twiddle factors of every stage in the order the
+    // butterflies of a block use them
+    int[] swaps;
+    double[][] stageCos;
+    double[][] stageSin;
+
+    // Half size transform used by realForward, taken from the plans on
+    // first use so a plain complex FFT does not pay for it
+    volatile FFT half;
+    // The real and imaginary buffers of realForward, one pair per thread
+    final ThreadLocal<double[][]> scratch
+            = ThreadLocal.withInitial(() -> new double[2][n / 2]);
+
+    // Given: a power of 2
+    // Returns: the transform of that size shared by the whole program. Its
+    //          tables are built once and never modified afterwards, and
+    //          realForward keeps its buffers per thread, so any number of
+    //          threads can use it at the same time
+    public static FFT plan(int n) {
+        FFT fft = PLANS.get(n);
+        if (fft == null) {
+            fft = new FFT(n);
+            FFT planned = PLANS.putIfAbsent(n, fft);
+            if (planned != null) {
+                fft = planned;
+            }
+        }
+        return fft;
+    }
+
     public FFT(int n) {
         this.n = n;
         this.m = (int) (Math.log(n) / Math.log(2));
@@ -59,9 +97,43 @@ public class FFT {
             sin[i] = Math.sin(-2 * Math.PI * i / n);
         }
 
+        makePlan();
         makeWindow();
     }
 
+    // Precomputes the bit-reverse permutation and the twiddle factors of
+    // every stage, so fft() only moves data
+    protected void makePlan() {
+        int[] pairs = new int[n];
+        int count = 0;
+        int j = 0;
+        for (int i = 1; i < n - 1; i++) {
+            int n1 = n / 2;
+            while (j >= n1) {
+                j = j - n1;
+                n1 = n1 / 2;
+            }
+            j = j + n1;
+            if (i < j) {
+                pairs[count++] = i;
+                pairs[count++] = j;
+            }
+        }
+        swaps = Arrays.copyOf(pairs, count);
+
+        stageCos = new double[m][];
+        stageSin = new double[m][];
+        for (int i = 0; i < m; i++) {
+            int span = 1 << i;
+            stageCos[i] = new double[span];
+            stageSin[i] = new double[span];
+            for (int k = 0; k < span; k++) {
+                stageCos[i][k] = cos[k << (m - i - 1)];
+                stageSin[i][k] = sin[k << (m - i - 1)];
+            }
+        }
+    }
+
     protected void makeWindow() {
         // Make a blackman window:
         // w(n)=0.42-0.5cos{(2*PI*n)/(N-1)}+0.08cos{(4*PI*n)/(N-1)};
@@ -89,56 +161,121 @@ public class FFT {
      *
      * Permission to copy and use this program is granted as long as this header
      * is included.
+     *
+     * The permutation and the twiddle factors come from the tables built by
+     * makePlan(), and the butterflies of a stage are run block by block by
+     * Kernels, vectorized when the Vector API is available. Every butterfly
+     * computes exactly what the original loops did.
      * ***************************************************************
      */
     public void fft(double[] x, double[] y) {
-        int i, j, k, n1, n2, a;
-        double c, s, e, t1, t2;
+        double t1;
 
         // Bit-reverse
-        j = 0;
-        n2 = n / 2;
-        for (i = 1; i < n - 1; i++) {
-            n1 = n2;
-            while (j >= n1) {
-                j = j - n1;
-                n1 = n1 / 2;
-            }
-            j = j + n1;
-
-            if (i < j) {
-                t1 = x[i];
-                x[i] = x[j];
-                x[j] = t1;
-                t1 = y[i];
-                y[i] = y[j];
-                y[j] = t1;
-            }
+        for (int p = 0; p < swaps.length; p += 2) {
+            int i = swaps[p];
+            int j = swaps[p + 1];
+            t1 = x[i];
+            x[i] = x[j];
+            x[j] = t1;
+            t1 = y[i];
+            y[i] = y[j];
+            y[j] = t1;
         }
 
         // FFT
-        n1 = 0;
-        n2 = 1;
-
-        for (i = 0; i < m; i++) {
-            n1 = n2;
-            n2 = n2 + n2;
-            a = 0;
-
-            for (j = 0; j < n1; j++) {
-                c = cos[a];
-                s = sin[a];
-                a += 1 << (m - i - 1);
-
-                for (k = j; k < n; k = k + n2) {
-                    t1 = c * x[k + n1] - s * y[k + n1];
-                    t2 = s * x[k + n1] + c * y[k + n1];
-                    x[k + n1] = x[k] - t1;
-                    y[k + n1] = y[k] - t2;
-                    x[k] = x[k] + t1;
-                    y[k] = y[k] + t2;
-                }
-            }
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = 0; i < m; i++) {
+            kernels.butterflies(x, y, n, 1 << i, stageCos[i], stageSin[i]);
+        }
+    }
+
+    /**
+     * Windowed transform of a real input.
+     *
+     * The n real samples are multiplied by the Blackman window and packed
+     * into n/2 complex values (even samples as the real part, odd samples
+     * as the imaginary part). One complex FFT of size n/2 is run on them
+     * and the spectrum of the real input is unpacked from the result, which
+     * costs about half of a complex FFT of size n with a zero imaginary
+     * part.
+     *
+     * input: x: double array of length n with the real samples, not modified
+     * output: magnitude: double array of length at least n/2+1 that receives
+     * the magnitude of bins 0 (DC) to n/2 (Nyquist)
+     */
+    public void realForward(double[] x, double[] magnitude) {
+        realForward(x, 0, magnitude, 0);
+    }
+
+    /**
+     * Windowed transform of a block of real inputs, one after the other.
+     *
+     * input: tokens: double array holding count inputs of n samples each,
+     * back to back, not modified
+     * output: magnitudes: double array that receives the n/2+1 magnitudes of
+     * every input, back to back
+     *
+     * Nothing is allocated, the block is transformed with the buffers of
+     * the calling thread.
+     */
+    public void realForward(double[] tokens, int count, double[] magnitudes) {
+        realForward(tokens, 0, count, n, magnitudes);
+    }
+
+    /**
+     * Windowed transform of inputs of n samples that start hop samples
+     * apart, so with a hop below n they overlap.
+     *
+     * input: x: double array holding the samples, not modified, offset:
+     * where the first input starts, count: the number of inputs, hop: the
+     * samples from the start of one input to the start of the next
+     * output: magnitudes: double array that receives the n/2+1 magnitudes of
+     * every input, back to back
+     */
+    public void realForward(double[] x, int offset, int count, int hop
+            , double[] magnitudes) {
+        for (int t = 0; t < count; t++) {
+            realForward(x, offset + t * hop, magnitudes, t * (n / 2 + 1));
+        }
+    }
+
+    // Same as realForward(double[], double[]) on the input starting at
+    // offset in x, storing the magnitudes from start on
+    private void realForward(double[] x, int offset, double[] magnitude
+            , int start) {
+        int h = n / 2;
+        FFT half = this.half;
+        if (half == null) {
+            half = plan(h);
+            this.half = half;
+        }
+        double[][] buffers = scratch.get();
+        double[] halfRe = buffers[0];
+        double[] halfIm = buffers[1];
+
+        // Window and pack
+        for (int i = 0; i < h; i++) {
+            halfRe[i] = x[offset + 2 * i] * window[2 * i];
+            halfIm[i] = x[offset + 2 * i + 1] * window[2 * i + 1];
+        }
+
+        half.fft(halfRe, halfIm);
+
+        // Unpack: X[k] = E[k] + W^k O[k] where E and O are the transforms of
+        // the even and odd samples, recovered from Z[k] and conj(Z[h-k])
+        for (int k = 0; k <= h; k++) {
+            int a = k % h;
+            int b = (h - k) % h;
+            double er = (halfRe[a] + halfRe[b]) / 2;
+            double ei = (halfIm[a] - halfIm[b]) / 2;
+            double or = (halfIm[a] + halfIm[b]) / 2;
+            double oi = (halfRe[b] - halfRe[a]) / 2;
+            double c = k < h ? cos[k] : -1;
+            double s = k < h ? sin[k] : 0;
+            double re = er + c * or - s * oi;
+            double im = ei + s * or + c * oi;
+            magnitude[start + k] = Math.sqrt(re * re + im * im);
         }
     }
 
@@ -181,6 +318,25 @@ public class FFT {
         }
         beforeAfter(fft, re, im);
 
+        // Real transform of the windowed ramp against the complex one
+        double[] magnitude = new double[N / 2 + 1];
+        for (int i = 0; i < N; i++) {
+            re[i] = i;
+        }
+        fft.realForward(re, magnitude);
+        for (int i = 0; i < N; i++) {
+            re[i] = i * window[i];
+            im[i] = 0;
+        }
+        fft.fft(re, im);
+        System.out.print("Real: [");
+        for (int i = 0; i <= N / 2; i++) {
+            System.out.print(((int) (magnitude[i] * 1000) / 1000.0) + "/"
+                    + ((int) (Math.hypot(re[i], im[i]) * 1000) / 1000.0)
+                    + " ");
+        }
+        System.out.println("]");
+
         long time = System.currentTimeMillis();
         double iter = 30000;
         for (int i = 0; i < iter; i++) {
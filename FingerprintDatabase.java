@@ -0,0 +1,381 @@
+package audiomatching;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Fingerprints kept on disk between runs so unchanged files are never
+// decoded again. The database file is laid out as
+//   header:      magic, format version, kind of fingerprint (1 for
+//                landmarks, 0 for band hashes), track count, hash section
+//                offset
+//   track table: for every track its path, size, modification time, SHA-1
+//                digest, metadata (duration, sample rate, channels, frames
+//                and quick digest, see TrackMetadata), base score, and the
+//                position (long) and number of its hashes in the hash
+//                section
+//   hashes:      the hash codes of all the tracks packed as ints
+// Only the track table is read when the file is opened. The hash section
+// is mapped in regions of at most REGION bytes, as a single mapping can't
+// exceed 2 GB, and the hashes of a track are read from its region when the
+// track is looked up. The rare track that straddles two regions is copied
+// to the heap instead. The hash index is not stored, it is rebuilt from the
+// hashes when needed
+public class FingerprintDatabase {
+
+    // "AMFP"
+    private static final int MAGIC = 0x414D4650;
+    // Bump whenever the layout or the fingerprinting algorithm changes, so
+    // old databases are rebuilt instead of being misread
+    private static final int VERSION = 8;
+    // Largest mapping of the hash section, in bytes
+    private static final long REGION = 1L << 30;
+
+    // What the database knows about one audio file
+    private static class Entry {
+        // Size of the file in bytes
+        final long size;
+        // Last modification time of the file in milliseconds
+        final long modified;
+        // SHA-1 digest of the file contents
+        final byte[] digest;
+        // Format, length and quick digest of the file
+        final TrackMetadata metadata;
+        // Score of the track matched against itself
+        final double baseScore;
+        // Hashes of the file, either still in the mapping or in memory
+        final IntBuffer mapped;
+        final int[] hashes;
+
+        Entry(long size, long modified, byte[] digest, TrackMetadata metadata
+                , double baseScore, IntBuffer mapped, int[] hashes) {
+            this.size = size;
+            this.modified = modified;
+            this.digest = digest;
+            this.metadata = metadata;
+            this.baseScore = baseScore;
+            this.mapped = mapped;
+            this.hashes = hashes;
+        }
+
+        // Returns: the hashes of the file as stored in a Track
+        int[] hashes() {
+            if (hashes != null) {
+                return hashes;
+            }
+            int[] array = new int[mapped.remaining()];
+            mapped.duplicate().get(array);
+            return array;
+        }
+
+        // Returns: the number of hashes of the file
+        int count() {
+            return hashes != null ? hashes.length : mapped.remaining();
+        }
+    }
+
+    // The database file
+    private final File file;
+    // True if the database holds landmarks instead of band hashes
+    private final boolean landmarks;
+    // Entries by canonical path of the audio file
+    private final ConcurrentHashMap<String, Entry> entries;
+    // Canonical path of an entry, by digest of its contents as a hex string
+    private final ConcurrentHashMap<String, String> byDigest;
+
+    private FingerprintDatabase(File file, boolean landmarks) {
+        this.file = file;
+        this.landmarks = landmarks;
+        this.entries = new ConcurrentHashMap();
+        this.byDigest = new ConcurrentHashMap();
+    }
+
+    // Given: a database file, and true if the fingerprints are landmarks
+    // Returns: the database stored in the file. A missing or outdated file,
+    //          or one holding the other kind of fingerprint, gives an empty
+    //          database that replaces the file when saved
+    // Throws an AudioMatchingException if the file is a current database
+    // that can't be read, rather than overwrite it with an empty one
+    public static FingerprintDatabase open(File file, boolean landmarks) {
+        FingerprintDatabase database = new FingerprintDatabase(file
+                , landmarks);
+        if (!file.isFile()) {
+            return database;
+        }
+        try {
+            if (!database.load()) {
+                Metrics.error("database", new IOException(file
+                        + " is not a current database, it will be rebuilt"));
+            }
+        } catch (IOException | RuntimeException ex) {
+            Metrics.error("database", ex);
+            throw new AudioMatchingException("Can't read fingerprint"
+                    + " database " + file + ": " + ex.getMessage());
+        }
+        return database;
+    }
+
+    // Returns: false if the file is not a current database of this kind of
+    //          fingerprint, and true once its track table is parsed and its
+    //          hash section mapped
+    // Throws an IOException if the file can't be read or is truncated
+    private boolean load() throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath()
+                , StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(channel), 64 * 1024));
+            if (channel.size() < 24 || in.readInt() != MAGIC
+                    || in.readInt() != VERSION
+                    || in.readInt() != (landmarks ? 1 : 0)) {
+                return false;
+            }
+            int count = in.readInt();
+            long hashSection = in.readLong();
+            long hashBytes = channel.size() - hashSection;
+            if (count < 0 || hashBytes < 0 || hashBytes % 4 != 0) {
+                throw new IOException(file + " is truncated");
+            }
+
+            // Map the hash section, one region at a time
+            MappedByteBuffer[] regions = new MappedByteBuffer[
+                    (int) ((hashBytes + REGION - 1) / REGION)];
+            for (int r = 0; r < regions.length; r++) {
+                long start = r * REGION;
+                regions[r] = channel.map(FileChannel.MapMode.READ_ONLY
+                        , hashSection + start
+                        , Math.min(REGION, hashBytes - start));
+            }
+
+            for (int i = 0; i < count; i++) {
+                byte[] path = new byte[in.readInt()];
+                in.readFully(path);
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] digest = new byte[20];
+                in.readFully(digest);
+                TrackMetadata metadata = new TrackMetadata(in.readDouble()
+                        , in.readFloat(), in.readInt(), in.readLong()
+                        , in.readLong());
+                double baseScore = in.readDouble();
+                long offset = in.readLong();
+                int length = in.readInt();
+
+                long start = 4 * offset;
+                long end = start + 4L * length;
+                if (offset < 0 || length < 0 || end > hashBytes) {
+                    throw new IOException(file + " is truncated");
+                }
+                IntBuffer mapped = null;
+                int[] hashes = null;
+                int r = (int) (start / REGION);
+                if (length == 0) {
+                    hashes = new int[0];
+                } else if ((end - 1) / REGION == r) {
+                    ByteBuffer region = regions[r].duplicate();
+                    region.position((int) (start - r * REGION));
+                    region.limit((int) (end - r * REGION));
+                    mapped = region.slice().asIntBuffer();
+                } else {
+                    // Across two regions
+                    hashes = new int[length];
+                    for (int h = 0; h < length; h++) {
+                        long at = start + 4L * h;
+                        hashes[h] = regions[(int) (at / REGION)].getInt(
+                                (int) (at % REGION));
+                    }
+                }
+                String name = new String(path, StandardCharsets.UTF_8);
+                entries.put(name, new Entry(size, modified, digest, metadata
+                        , baseScore, mapped, hashes));
+                byDigest.put(HexFormat.of().formatHex(digest), name);
+            }
+        }
+        return true;
+    }
+
+    // Given: an audio file
+    // Returns: the stored fingerprint of the file, or null if the file is
+    //          not in the database or has changed since it was stored
+    // Process: a file whose size and modification time match its entry is
+    //          trusted as is. Otherwise the contents are hashed and the entry
+    //          is still used (with the new times) if the digest matches
+    public Track lookup(File file) throws IOException {
+        String name = file.getCanonicalPath();
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return null;
+        }
+        long size = file.length();
+        long modified = file.lastModified();
+        if (entry.size != size || entry.modified != modified) {
+            if (entry.size != size
+                    || !Arrays.equals(entry.digest, digest(file))) {
+                return null;
+            }
+            entry = new Entry(size, modified, entry.digest, entry.metadata
+                    , entry.baseScore, entry.mapped, entry.hashes);
+            entries.put(name, entry);
+        }
+        return new Track(name, entry.hashes(), entry.metadata
+                , entry.baseScore);
+    }
+
+    // Given: the canonical path of an audio file and the digest of its
+    //        contents
+    // Returns: the fingerprint stored for another file with the same
+    //          contents, under the given name, or null if there is none
+    public Track lookup(String name, byte[] digest) {
+        String other = byDigest.get(HexFormat.of().formatHex(digest));
+        Entry entry = other == null ? null : entries.get(other);
+        if (entry == null || !Arrays.equals(entry.digest, digest)) {
+            return null;
+        }
+        return new Track(name, entry.hashes(), entry.metadata
+                , entry.baseScore);
+    }
+
+    // Given: the canonical path of an audio file
+    // Returns: the digest of the contents stored for the file, see digest(),
+    //          or null if the file is not in the database
+    public byte[] getDigest(String name) {
+        Entry entry = entries.get(name);
+        return entry == null ? null : entry.digest;
+    }
+
+    // Given: an audio file and its scored fingerprint
+    // Adds or replaces the entry of the file
+    public void put(File file, Track track) throws IOException {
+        put(file, track, digest(file));
+    }
+
+    // Given: an audio file, its scored fingerprint and the digest of its
+    //        contents, see digest()
+    // Same as put() above without digesting the file again
+    public void put(File file, Track track, byte[] digest) {
+        long size = file.length();
+        long modified = file.lastModified();
+        entries.put(track.getName(), new Entry(size, modified, digest
+                , track.getMetadata(), track.getBaseScore(), null
+                , track.getHashes()));
+        byDigest.put(HexFormat.of().formatHex(digest), track.getName());
+    }
+
+    // Writes the database to its file. Entries of files that no longer
+    // exist are dropped. The new file is written next to the old one and
+    // moved over it, so a failed save never leaves a broken database.
+    // The written entries are then read back from the new file, so their
+    // hashes stay in the mapping instead of on the heap
+    public void save() throws IOException {
+        ArrayList<String> names = new ArrayList();
+        HashMap<String, Entry> written = new HashMap();
+        for (String name : entries.keySet()) {
+            if (new File(name).isFile()) {
+                names.add(name);
+                written.put(name, entries.get(name));
+            }
+        }
+
+        // Lay out the track table first to know where the hashes start
+        long tableSize = 0;
+        for (String name : names) {
+            tableSize += 4 + name.getBytes(StandardCharsets.UTF_8).length
+                    + 8 + 8 + 20 + 8 + 4 + 4 + 8 + 8 + 8 + 8 + 4;
+        }
+        long hashSection = 4 + 4 + 4 + 4 + 8 + tableSize;
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(landmarks ? 1 : 0);
+            out.writeInt(names.size());
+            out.writeLong(hashSection);
+
+            long offset = 0;
+            for (String name : names) {
+                Entry entry = written.get(name);
+                byte[] path = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(path.length);
+                out.write(path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.modified);
+                out.write(entry.digest);
+                TrackMetadata metadata = entry.metadata;
+                out.writeDouble(metadata.getDuration());
+                out.writeFloat(metadata.getSampleRate());
+                out.writeInt(metadata.getChannels());
+                out.writeLong(metadata.getFrames());
+                out.writeLong(metadata.getDigest());
+                out.writeDouble(entry.baseScore);
+                out.writeLong(offset);
+                out.writeInt(entry.count());
+                offset += entry.count();
+            }
+            for (String name : names) {
+                Entry entry = written.get(name);
+                if (entry.hashes != null) {
+                    for (int hash : entry.hashes) {
+                        out.writeInt(hash);
+                    }
+                } else {
+                    for (int i = 0; i < entry.mapped.remaining(); i++) {
+                        out.writeInt(entry.mapped.get(i));
+                    }
+                }
+            }
+        }
+        Files.move(temp.toPath(), file.toPath()
+                , StandardCopyOption.REPLACE_EXISTING
+                , StandardCopyOption.ATOMIC_MOVE);
+
+        // Entries replaced while saving keep their newer contents
+        FingerprintDatabase saved = new FingerprintDatabase(file, landmarks);
+        if (!saved.load()) {
+            throw new IOException(file + " was changed while saving");
+        }
+        for (String name : names) {
+            entries.replace(name, written.get(name), saved.entries.get(name));
+        }
+    }
+
+    // Given: a file
+    // Returns: the SHA-1 digest of the contents of the file
+    static byte[] digest(File file) throws IOException {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+                sha.update(buffer, 0, count);
+            }
+        }
+        return sha.digest();
+    }
+}
@@ -0,0 +1,34 @@
+package audiomatching;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JDK Flight Recorder event for the fingerprinting of one file, from
+// opening it to its last hash. Record it with
+//   java -XX:StartFlightRecording:filename=run.jfr ...
+@Name("audiomatching.Fingerprint")
+@Label("Fingerprint")
+@Category("Audio Matching")
+@Description("Decoding, transforming and hashing one audio file")
+class FingerprintEvent extends Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Tokens")
+    int tokens;
+
+    @Label("Hashes")
+    int hashes;
+
+    @Label("Bytes Read")
+    @DataAmount
+    long bytesRead;
+
+    @Label("Landmarks")
+    boolean landmarks;
+}
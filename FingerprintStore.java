@@ -0,0 +1,46 @@
+package audiomatching;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Holds the fingerprint of every processed audio file, keyed by the
+// canonical path of the file. Safe to fill from many threads at once
+public class FingerprintStore {
+
+    private final ConcurrentHashMap<String, Track> tracks;
+
+    FingerprintStore() {
+        tracks = new ConcurrentHashMap();
+    }
+
+    // Given: a track
+    // Adds the track, replacing any earlier track for the same file
+    public void put(Track track) {
+        tracks.put(track.getName(), track);
+    }
+
+    // Given: the canonical path of an audio file
+    // Returns: the track of that file or null if it was never processed
+    public Track get(String name) {
+        return tracks.get(name);
+    }
+
+    // Given: the canonical path of an audio file
+    // Drops the track of that file, if any
+    public void remove(String name) {
+        tracks.remove(name);
+    }
+
+    public boolean containsKey(String name) {
+        return tracks.containsKey(name);
+    }
+
+    public int size() {
+        return tracks.size();
+    }
+
+    // Returns: a live view of all the stored tracks
+    public Collection<Track> tracks() {
+        return tracks.values();
+    }
+}
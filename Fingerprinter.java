@@ -0,0 +1,498 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Turns an audio file into its fingerprint. Every call works on its own
+// local buffers and the configuration is immutable, so a single instance
+// can fingerprint many files on many threads at the same time.
+// A file is processed as a stream: one thread decodes PCM tokens into a
+// small ring of blocks of tokens while the calling thread transforms a whole
+// block at once and hashes its tokens. No spectrum is kept once it has been
+// hashed, so apart from the fingerprint itself the memory used does not
+// depend on the length of the file. The ring and the spectra are kept by
+// the calling thread and reused for its next file, and the FFT is the
+// shared plan of its size, so fingerprinting a file allocates little more
+// than the fingerprint itself.
+// A fingerprint is either one band hash per token, see getHash(), or the
+// (hash, anchor frame) pairs of the landmarks of the file, see Landmarks.
+// Landmarks are found on spectra taken HOPS times per token, each window
+// overlapping the previous one, so the peaks of the same sound fall on
+// nearly the same frames wherever it starts
+public class Fingerprinter {
+
+    // Number of blocks shared between the decoding thread and the hashing
+    // thread
+    private static final int RING_SIZE = 4;
+    // Number of tokens in a block
+    private static final int BLOCK_TOKENS = 8;
+    // Number of spectra taken per token for landmarks, one every
+    // TOKEN_SIZE / HOPS samples
+    private static final int HOPS = 4;
+    // Marks the end of the decoded tokens in the ring
+    private static final Block END = new Block(0);
+    // Threads that decode files while their tokens are being hashed
+    private static final ExecutorService DECODERS
+            = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "audio-decoder");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // Converts audio files to a stream of PCM tokens
+    private final AudioDecoder decoder;
+    // True if the fingerprints are landmarks instead of band hashes
+    private final boolean landmarks;
+    // Size of each token while tokenizing the audio files
+    private final int TOKEN_SIZE;
+    // Max values for frequency. The spectrum of a real token has bins 0 to
+    // MAX inclusive
+    private final int MAX;
+    // The range of frequencies that are considered for fingerprinting
+    private final int[] CONSIDERED_POINTS;
+    // The buffers of the files being fingerprinted, by calling thread
+    private final ThreadLocal<Buffers> buffers
+            = ThreadLocal.withInitial(Buffers::new);
+
+    // Given: the decoder used to read audio files
+    Fingerprinter(AudioDecoder decoder) {
+        this(decoder, false);
+    }
+
+    // Given: the decoder used to read audio files, and true to fingerprint
+    //        them with landmarks
+    Fingerprinter(AudioDecoder decoder, boolean landmarks) {
+        this.decoder = decoder;
+        this.landmarks = landmarks;
+
+        TOKEN_SIZE = 1024;
+        MAX = TOKEN_SIZE / 2;
+
+        CONSIDERED_POINTS = new int[4];
+        CONSIDERED_POINTS[0] = MAX / 8;
+        CONSIDERED_POINTS[1] = MAX / 4;
+        CONSIDERED_POINTS[2] = MAX / 2;
+        CONSIDERED_POINTS[3] = MAX + 1;
+    }
+
+    // Returns: the number of samples in a token
+    int getTokenSize() {
+        return TOKEN_SIZE;
+    }
+
+    // Given: An audio file
+    // Returns: the fingerprint of the file or null if the file is not in a
+    //          supported format
+    // Process: Decodes the file to a stream of PCM tokens using readAudio()
+    //          on a separate thread, a block of tokens at a time. Every block
+    //          is converted to frequency domain data in one call, and its
+    //          tokens are hashed, or searched for peaks, as soon as it
+    //          arrives
+    // Throws an IOException if the file can't be read or decoded
+    public Track fingerprint(File file) throws IOException {
+        FingerprintEvent event = new FingerprintEvent();
+        event.begin();
+        long started = Metrics.start();
+        String name = file.getCanonicalPath();
+        final PcmReader pcmReader = readAudio(file);
+        Metrics.stop(Metrics.Stage.READ_AUDIO, started);
+        if (pcmReader == null) {
+            return null;
+        }
+
+        Buffers local = buffers.get();
+        final ArrayBlockingQueue<Block> free = local.free;
+        final ArrayBlockingQueue<Block> full = local.full;
+
+        // Decode complete tokens into free blocks until the input ends,
+        // unless the file was given up on before the decoding began, see
+        // stopDecoding()
+        final AtomicBoolean claimed = new AtomicBoolean();
+        Future<?> decoding = DECODERS.submit(() -> {
+            if (!claimed.compareAndSet(false, true)) {
+                return null;
+            }
+            try {
+                while (true) {
+                    Block block = free.take();
+                    long decoded = Metrics.start();
+                    block.tokens = 0;
+                    while (block.tokens < BLOCK_TOKENS
+                            && pcmReader.read(block.samples
+                                    , block.tokens * TOKEN_SIZE)
+                            == TOKEN_SIZE) {
+                        block.tokens++;
+                    }
+                    Metrics.stop(Metrics.Stage.DECODE, decoded);
+                    if (block.tokens == 0) {
+                        free.put(block);
+                        break;
+                    }
+                    full.put(block);
+                    if (block.tokens < BLOCK_TOKENS) {
+                        break;
+                    }
+                }
+            } finally {
+                full.put(END);
+            }
+            return null;
+        });
+
+        FFT fft = FFT.plan(TOKEN_SIZE);
+        double[] magnitudes = local.magnitudes;
+        int[] consideredPoints = local.consideredPoints;
+        double[] maxScores = local.maxScores;
+        double[] overlap = local.overlap;
+        int[] hashes = new int[256];
+        int count = 0;
+        Landmarks constellation = landmarks ? new Landmarks(MAX + 1) : null;
+        int tokenCount = 0;
+        boolean ended = false;
+        boolean reusable = false;
+
+        try {
+            Block block;
+            while ((block = full.take()) != END) {
+                // Convert the time domain data to frequency domain data
+                int tokens = block.tokens;
+                if (constellation != null) {
+                    findPeaks(fft, block, tokenCount == 0, overlap
+                            , magnitudes, constellation);
+                    free.put(block);
+                    tokenCount += tokens;
+                    continue;
+                }
+                long converted = Metrics.start();
+                convertToFrequency(fft, block.samples, tokens, magnitudes);
+                Metrics.stop(Metrics.Stage.CONVERT_TO_FREQUENCY, converted);
+                free.put(block);
+                tokenCount += tokens;
+                for (int t = 0; t < tokens; t++) {
+                    // Construct the token's audio fingerprint
+                    if (count == hashes.length) {
+                        hashes = Arrays.copyOf(hashes, 2 * count);
+                    }
+                    long hashed = Metrics.start();
+                    hashes[count++] = getHash(magnitudes, t * (MAX + 1)
+                            , consideredPoints, maxScores);
+                    Metrics.stop(Metrics.Stage.GET_HASH, hashed);
+                }
+            }
+            ended = true;
+            decoding.get();
+            reusable = true;
+        } catch (InterruptedException ex) {
+            Metrics.error("fingerprint", ex);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fingerprinting " + file);
+        } catch (ExecutionException ex) {
+            Metrics.error("decode", ex.getCause());
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            if (!ended) {
+                stopDecoding(decoding, claimed, full);
+            }
+            pcmReader.close();
+            if (!reusable) {
+                // The decoding thread may still hold a block
+                buffers.remove();
+            }
+        }
+        if (constellation != null) {
+            hashes = constellation.finish();
+        } else {
+            hashes = Arrays.copyOf(hashes, count);
+        }
+        // Landmarks take two ints each
+        int hashCount = constellation != null ? hashes.length / 2
+                : hashes.length;
+        Metrics.stop(Metrics.Stage.FINGERPRINT, started);
+        Metrics.count(Metrics.Counter.FILES, 1);
+        Metrics.count(Metrics.Counter.TOKENS, tokenCount);
+        Metrics.count(Metrics.Counter.HASHES, hashCount);
+        Metrics.count(Metrics.Counter.BYTES_READ, pcmReader.getBytesRead());
+        if (event.shouldCommit()) {
+            event.file = name;
+            event.tokens = tokenCount;
+            event.hashes = hashCount;
+            event.bytesRead = pcmReader.getBytesRead();
+            event.landmarks = landmarks;
+            event.commit();
+        }
+        TrackMetadata metadata = new TrackMetadata(pcmReader.getDuration()
+                , pcmReader.getSampleRate(), pcmReader.getChannels()
+                , pcmReader.getFrames(), TrackMetadata.digest(file));
+        return new Track(name, hashes, metadata);
+    }
+
+    // Given: the FFT, the next block of tokens of a file, true if it is the
+    //        first one, the overlap buffer and spectra of the calling thread
+    //        and the landmarks of the file
+    // Adds the spectra of the block taken every TOKEN_SIZE / HOPS samples
+    // to the landmarks. Every window ends within the block, so those that
+    // begin before it start in the last TOKEN_SIZE - TOKEN_SIZE / HOPS
+    // samples of the previous block, which are kept at the start of the
+    // overlap buffer; the first block has nothing before it, and its first
+    // window starts with the file
+    private void findPeaks(FFT fft, Block block, boolean first
+            , double[] overlap, double[] magnitudes, Landmarks constellation) {
+        int hop = TOKEN_SIZE / HOPS;
+        int kept = TOKEN_SIZE - hop;
+        int length = block.tokens * TOKEN_SIZE;
+        System.arraycopy(block.samples, 0, overlap, kept, length);
+        int start = first ? kept : 0;
+        int frames = (kept + length - start - TOKEN_SIZE) / hop + 1;
+        long converted = Metrics.start();
+        convertToFrequency(fft, overlap, start, frames, hop, magnitudes);
+        Metrics.stop(Metrics.Stage.CONVERT_TO_FREQUENCY, converted);
+        for (int f = 0; f < frames; f++) {
+            constellation.add(magnitudes, f * (MAX + 1));
+        }
+        System.arraycopy(overlap, length, overlap, 0, kept);
+    }
+
+    // Given: an audio file and a number of phases that divides the token
+    //        size
+    // Returns: the band hashes of the file at every phase, or null if the
+    //          file is not in a supported format. Phase p hashes the tokens
+    //          that start p * token size / phases samples after the tokens
+    //          of fingerprint(), so phase 0 is the fingerprint itself, and
+    //          the tokens of one of the phases start within token size /
+    //          (2 * phases) samples of those of any other recording of the
+    //          same sound, however much audio precedes it
+    // Process: the file is read a step of token size / phases samples at a
+    //          time, and every step the last token of samples is hashed for
+    //          the next phase, as StreamMatcher does with a stream. This
+    //          takes phases times the transforms of fingerprint(), so it is
+    //          only done for queries that are matched at any alignment
+    // Throws an IOException if the file can't be read or decoded
+    int[][] fingerprintPhases(File file, int phases) throws IOException {
+        int step = TOKEN_SIZE / phases;
+        PcmReader reader = decoder.open(file, step);
+        if (reader == null) {
+            return null;
+        }
+        FFT fft = FFT.plan(TOKEN_SIZE);
+        double[] samples = new double[TOKEN_SIZE];
+        double[] chunk = new double[step];
+        double[] magnitude = new double[MAX + 1];
+        int[] consideredPoints = new int[CONSIDERED_POINTS.length];
+        double[] maxScores = new double[CONSIDERED_POINTS.length];
+        int[][] hashes = new int[phases][64];
+        int[] counts = new int[phases];
+        try {
+            long steps = 0;
+            while (reader.read(chunk, 0) == step) {
+                // Slide the last token of samples by one step
+                System.arraycopy(samples, step, samples, 0
+                        , TOKEN_SIZE - step);
+                System.arraycopy(chunk, 0, samples, TOKEN_SIZE - step, step);
+                steps++;
+                if (steps < phases) {
+                    continue;
+                }
+                int phase = (int) ((steps - phases) % phases);
+                if (counts[phase] == hashes[phase].length) {
+                    hashes[phase] = Arrays.copyOf(hashes[phase]
+                            , 2 * counts[phase]);
+                }
+                convertToFrequency(fft, samples, magnitude);
+                hashes[phase][counts[phase]++] = getHash(magnitude
+                        , consideredPoints, maxScores);
+            }
+        } finally {
+            reader.close();
+        }
+        for (int phase = 0; phase < phases; phase++) {
+            hashes[phase] = Arrays.copyOf(hashes[phase], counts[phase]);
+        }
+        return hashes;
+    }
+
+    // Given: the decoding of a file given up on before its END block, which
+    //        has begun if claimed is set, and the ring it puts blocks in
+    // Stops the decoding and waits until it has put its END block, which is
+    // the last thing it does, so it no longer reads the file once the file
+    // is closed. A decoding that had not begun yet never will
+    private static void stopDecoding(Future<?> decoding
+            , AtomicBoolean claimed, ArrayBlockingQueue<Block> full) {
+        if (claimed.compareAndSet(false, true)) {
+            decoding.cancel(false);
+            return;
+        }
+        decoding.cancel(true);
+        // Taking the full blocks makes room for the END block
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (full.take() == END) {
+                    break;
+                }
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Given: An audio file
+    // Returns: a PcmReader over the time data of the file, or null if the
+    //          decoder does not support the file
+    // Process: WAVE files are mapped and read in place, other formats are
+    //          decoded on the fly, so nothing is written to disk. The samples
+    //          are decoded token by token so the whole file is never held in
+    //          memory
+    PcmReader readAudio(File file) throws IOException {
+        return decoder.open(file, TOKEN_SIZE);
+    }
+
+    // Given: the FFT used by the calling thread, a complete token of time
+    //        domain data and a buffer of MAX + 1 bins
+    // Converts the token into frequency domain data using the windowed real
+    // Fast Fourier Transformation, storing the magnitude of each frequency
+    // bin in the buffer
+    void convertToFrequency(FFT fft, double[] token, double[] magnitude) {
+        fft.realForward(token, magnitude);
+    }
+
+    // Given: the FFT, a block of complete tokens one after the other, the
+    //        number of tokens and a buffer of MAX + 1 bins for each of them
+    // Same as above for every token of the block, in a single call
+    void convertToFrequency(FFT fft, double[] tokens, int count
+            , double[] magnitudes) {
+        fft.realForward(tokens, count, magnitudes);
+    }
+
+    // Given: the FFT, samples, where the first window starts in them, the
+    //        number of windows, the samples between the starts of two
+    //        windows and a buffer of MAX + 1 bins for each window
+    // Same as above for windows of a token of samples that may overlap
+    void convertToFrequency(FFT fft, double[] samples, int offset, int count
+            , int hop, double[] magnitudes) {
+        fft.realForward(samples, offset, count, hop, magnitudes);
+    }
+
+    // Given: the frequency domain data of a token, and buffers for the
+    //        points having highest magnitude between the considered points
+    //        along with their magnitudes
+    // Returns: the hash code of the token
+    // Generates the hash code by packing the points having highest
+    // magnitude between the considered points into a single int.
+    // Every range gets one byte holding the offset of its point from the
+    // start of the range, the lowest range in the most significant byte, so
+    // hash codes that are numerically close agree on the low frequencies.
+    // The buffers are cleared first, so the hash code depends on this token
+    // only and the same sound gets the same hash codes wherever it starts.
+    // The point of a range is the first bin with the largest log(mag + 1),
+    // if that is above 0. The logarithm doesn't change which magnitude is
+    // the largest, so the loudest bin is found on the magnitudes themselves
+    // by Kernels and only bins within a rounding error of it get a
+    // logarithm, see loudestBin()
+    int getHash(double[] slice, int[] consideredPoints, double[] maxScores) {
+        return getHash(slice, 0, consideredPoints, maxScores);
+    }
+
+    // Same as above on the spectrum starting at offset in spectra
+    int getHash(double[] spectra, int offset, int[] consideredPoints
+            , double[] maxScores) {
+        Kernels kernels = Kernels.INSTANCE;
+        for (int i = 0; i < CONSIDERED_POINTS.length; i++) {
+            int from = offset + rangeStart(i);
+            int to = offset + Math.min(CONSIDERED_POINTS[i], MAX) + 1;
+            consideredPoints[i] = from - offset;
+            maxScores[i] = 0;
+
+            int peak = kernels.argmax(spectra, from, to);
+            double mag = Math.log(spectra[peak] + 1);
+            if (mag > 0) {
+                consideredPoints[i] = loudestBin(kernels, spectra, from, peak
+                        , mag) - offset;
+                maxScores[i] = mag;
+            }
+        }
+        int hash = 0;
+        // Pack all the considered points for the given chunk
+        for (int i = 0; i < CONSIDERED_POINTS.length; i++) {
+            hash = (hash << 8)
+                    | ((consideredPoints[i] - rangeStart(i)) & 0xFF);
+        }
+        return hash;
+    }
+
+    // Given: the kernels, the frequency domain data of a token, the first
+    //        bin of a range, the bin with the largest magnitude of the range
+    //        and the log(mag + 1) of that bin
+    // Returns: the first bin of the range with that same log(mag + 1)
+    // Distinct magnitudes can round to the same logarithm, and the first of
+    // them is the one a bin by bin search on logarithms keeps. Such bins are
+    // within a relative 1e-12 of the loudest one, far more than the rounding
+    // error of the logarithm, so only the few bins above that bound are
+    // checked
+    private int loudestBin(Kernels kernels, double[] slice, int from
+            , int peak, double mag) {
+        double bound = (slice[peak] + 1) * (1 - 1e-12) - 1;
+        int i = kernels.firstAtLeast(slice, from, peak, bound);
+        while (i < peak && Math.log(slice[i] + 1) != mag) {
+            i = kernels.firstAtLeast(slice, i + 1, peak, bound);
+        }
+        return i;
+    }
+
+    // Given: the number of a frequency range
+    // Returns: the first index value in that range
+    private int rangeStart(int pointNumber) {
+        return pointNumber == 0 ? 0 : CONSIDERED_POINTS[pointNumber - 1] + 1;
+    }
+
+    // A block of PCM tokens passed from the decoding thread to the hashing
+    // thread
+    private static final class Block {
+
+        // The samples of the tokens, one token after the other
+        final double[] samples;
+        // Number of complete tokens in the block
+        int tokens;
+
+        Block(int size) {
+            samples = new double[size];
+        }
+    }
+
+    // The ring of blocks and the spectra of one hashing thread
+    private final class Buffers {
+
+        final ArrayBlockingQueue<Block> free
+                = new ArrayBlockingQueue(RING_SIZE);
+        // One more slot for END
+        final ArrayBlockingQueue<Block> full
+                = new ArrayBlockingQueue(RING_SIZE + 1);
+        // Landmarks take HOPS spectra per token
+        final double[] magnitudes = new double[(landmarks ? HOPS : 1)
+                * BLOCK_TOKENS * (MAX + 1)];
+        // The last samples of the previous block followed by the samples
+        // of the block, for the overlapping windows of landmarks
+        final double[] overlap = landmarks
+                ? new double[(BLOCK_TOKENS + 1) * TOKEN_SIZE] : null;
+        final int[] consideredPoints = new int[CONSIDERED_POINTS.length];
+        final double[] maxScores = new double[CONSIDERED_POINTS.length];
+
+        Buffers() {
+            for (int i = 0; i < RING_SIZE; i++) {
+                free.add(new Block(BLOCK_TOKENS * TOKEN_SIZE));
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package audiomatching;
+
+import java.util.List;
+
+// Inverted index from chunk hashes to the places they occur in a set of
+// tracks. Hashes are grouped into buckets of 10^INTENSITY consecutive
+// values, so all the hashes within the matching tolerance of a query hash
+// are found by looking at a few neighbouring buckets instead of scanning
+// every track.
+// Every bucket holds a posting list of (track id, chunk offset) pairs,
+// sorted by offset so the pairs at one offset are found by a binary search.
+// The tracks and the posting lists are held off the heap, in a TrackTable
+// and a PostingTable, so the size of the catalog doesn't weigh on the
+// garbage collector. Track ids are the positions of the tracks in the list
+// the index was built from
+public class HashIndex implements TrackIndex {
+
+    // The indexed tracks, by track id
+    private final TrackTable tracks;
+    // Posting lists of every non empty bucket
+    private final PostingTable postings;
+    // Ids of the tracks with a base score of zero, in ascending order
+    private final int[] emptyTracks;
+    // Width of a bucket, 10^INTENSITY
+    private final int width;
+    // Two hashes match if they differ by less than the tolerance
+    private final long tolerance;
+    // Number of buckets on each side of a query bucket that can hold hashes
+    // within the tolerance
+    private final int radius;
+
+    // Given: the tracks to index, and the intensity and threshold used by
+    //        the matching function
+    HashIndex(List<Track> tracks, int intensity, int threshold) {
+        width = (int) Math.pow(10, intensity);
+        tolerance = (long) (threshold + 1) * width;
+        radius = threshold + 1;
+        this.tracks = new TrackTable(tracks);
+
+        // Count the postings of every bucket
+        postings = new PostingTable(2);
+        for (int id = 0; id < tracks.size(); id++) {
+            for (int hash : tracks.get(id).getHashes()) {
+                postings.count(bucket(hash));
+            }
+        }
+
+        // Fill the posting lists
+        postings.allocate();
+        for (int id = 0; id < tracks.size(); id++) {
+            int[] hashes = tracks.get(id).getHashes();
+            for (int offset = 0; offset < hashes.length; offset++) {
+                long posting = postings.add(bucket(hashes[offset]));
+                postings.set(posting, 0, id);
+                postings.set(posting, 1, offset);
+            }
+        }
+        // candidates() only looks at one offset of every list
+        postings.sort(1);
+        emptyTracks = Votes.emptyTracks(tracks);
+    }
+
+    // Returns: the number of indexed tracks
+    public int size() {
+        return tracks.size();
+    }
+
+    // Given: a track id
+    // Returns: the canonical path of that track
+    public String getName(int id) {
+        return tracks.getName(id);
+    }
+
+    // Given: a track id
+    // Returns: the base score of that track
+    public double getBaseScore(int id) {
+        return tracks.getBaseScore(id);
+    }
+
+    // Given: a track id
+    // Returns: that track, with a copy of its hashes
+    public Track getTrack(int id) {
+        return tracks.getTrack(id);
+    }
+
+    // Given: the canonical path of a file
+    // Returns: the id of its track, or -1 if it is not indexed
+    public int find(String name) {
+        return tracks.find(name);
+    }
+
+    // Returns: the tolerance of the matching function, two hashes match if
+    //          they differ by less
+    long getTolerance() {
+        return tolerance;
+    }
+
+    // Given: a duration in seconds
+    // Returns: the ids of the tracks of exactly that duration, in ascending
+    //          order
+    public int[] withDuration(double duration) {
+        return tracks.withDuration(duration);
+    }
+
+    // Given: the hashes and base score of a query track and the accuracy of
+    //        the matching function
+    // Returns: the ids of the tracks, in ascending order, that have enough
+    //          aligned hashes in common with the query to possibly match it
+    // Process: every query hash votes for the tracks that hold a hash within
+    //          the tolerance at the same chunk offset, which is exactly what
+    //          the matching function counts. A track can only match if its
+    //          votes reach ACCURACY times the smaller of the two base
+    //          scores. Only the postings at the offset of each query hash
+    //          in the looked up buckets are touched
+    public int[] candidates(int[] query, double baseScore, double accuracy) {
+        if (baseScore <= 0) {
+            return Votes.allTracks(tracks.size());
+        }
+
+        Votes votes = new Votes();
+        for (int offset = 0; offset < query.length; offset++) {
+            int hash = query[offset];
+            int key = bucket(hash);
+            for (int b = key - radius; b <= key + radius; b++) {
+                long slot = postings.find(b);
+                if (slot == -1) {
+                    continue;
+                }
+                long end = postings.end(slot);
+                for (long p = postings.lowerBound(slot, 1, offset)
+                        ; p < end && postings.get(p, 1) == offset; p++) {
+                    int id = postings.get(p, 0);
+                    if (Math.abs((long) tracks.getHash(id, offset) - hash)
+                            < tolerance) {
+                        votes.add(id, 0);
+                    }
+                }
+            }
+        }
+        return Votes.ids(votes.alignments(tracks, emptyTracks, baseScore
+                , accuracy, Double.POSITIVE_INFINITY));
+    }
+
+    // Given: the hashes and base score of a query track and the accuracy of
+    //        the matching function
+    // Returns: pairs of (track id, delay) for the tracks, in ascending order
+    //          of id, that can match the query once it is shifted by the
+    //          delay, that is when query chunk i is compared with chunk
+    //          i + delay of the track
+    // Process: every pair of hashes within the tolerance votes for the
+    //          difference between their chunk offsets. The votes for a
+    //          delay are exactly the score of the query at that delay, so
+    //          the most voted delay of a track is its best alignment and the
+    //          track is kept if that score reaches ACCURACY times the smaller
+    //          of the two base scores. The query can be much shorter than
+    //          the tracks and start anywhere inside them; the work depends
+    //          on the length of the query and the posting lists it touches
+    public int[] search(int[] query, double baseScore, double accuracy) {
+        if (baseScore <= 0) {
+            return Votes.allAlignments(tracks.size());
+        }
+
+        Votes votes = new Votes();
+        for (int offset = 0; offset < query.length; offset++) {
+            int hash = query[offset];
+            int key = bucket(hash);
+            for (int b = key - radius; b <= key + radius; b++) {
+                long slot = postings.find(b);
+                if (slot == -1) {
+                    continue;
+                }
+                for (long p = postings.start(slot); p < postings.end(slot)
+                        ; p++) {
+                    int id = postings.get(p, 0);
+                    int position = postings.get(p, 1);
+                    if (Math.abs((long) tracks.getHash(id, position) - hash)
+                            < tolerance) {
+                        votes.add(id, position - offset);
+                    }
+                }
+            }
+        }
+        return votes.alignments(tracks, emptyTracks, baseScore, accuracy
+                , Double.POSITIVE_INFINITY);
+    }
+
+    // Given: a hash code
+    // Returns: the bucket the hash code belongs to
+    private int bucket(int hash) {
+        return Math.floorDiv(hash, width);
+    }
+}
@@ -0,0 +1,109 @@
+package audiomatching;
+
+// The inner loops of fingerprinting, the butterflies of the FFT and the
+// search for the loudest bin of a frequency range. They come in two
+// versions: the scalar one below, and one using the Vector API
+// (jdk.incubator.vector) in vector/VectorKernels.java.
+// The vector version is only used if it was compiled and the JVM runs with
+// the incubator module:
+//   javac --add-modules jdk.incubator.vector -d build *.java vector/*.java
+//   java --add-modules jdk.incubator.vector -cp build ...
+// It is loaded by name at startup, so the rest of the code builds and runs
+// without the module and falls back to the scalar version. Setting the
+// audiomatching.vector system property to false forces the scalar version.
+// Both versions do the same floating point operations in the same order on
+// every element, so they give bit for bit the same results
+abstract class Kernels {
+
+    // The version used by this JVM
+    static final Kernels INSTANCE = select();
+
+    // Returns: a short name of the version, for logs and benchmarks
+    abstract String name();
+
+    // Given: the real and imaginary parts of a transform of size n, the
+    //        span of the current stage, the distance between the two inputs
+    //        of a butterfly, and the twiddle factors of the stage, one for
+    //        each of the span positions of a block
+    // Runs all the butterflies of one radix-2 stage in place
+    abstract void butterflies(double[] x, double[] y, int n, int span
+            , double[] cos, double[] sin);
+
+    // Given: values and a range of indices, from inclusive and to exclusive
+    // Returns: the first index of the largest value in the range. NaN values
+    //          are skipped, and from is returned if there is no other value
+    abstract int argmax(double[] values, int from, int to);
+
+    // Given: values, a range of indices, from inclusive and to exclusive,
+    //        and a bound
+    // Returns: the first index in the range whose value is at least the
+    //          bound, or to if there is none
+    abstract int firstAtLeast(double[] values, int from, int to
+            , double bound);
+
+    // Returns: the vector version if it is available and allowed, else the
+    //          scalar one
+    private static Kernels select() {
+        if (Boolean.parseBoolean(
+                System.getProperty("audiomatching.vector", "true"))) {
+            try {
+                return (Kernels) Class.forName("audiomatching.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // Not compiled, or the incubator module is not loaded
+            }
+        }
+        return new Scalar();
+    }
+
+    // Plain loops over the arrays
+    static class Scalar extends Kernels {
+
+        @Override
+        String name() {
+            return "scalar";
+        }
+
+        @Override
+        void butterflies(double[] x, double[] y, int n, int span
+                , double[] cos, double[] sin) {
+            for (int k = 0; k < n; k += 2 * span) {
+                for (int j = 0; j < span; j++) {
+                    int top = k + j;
+                    int bottom = top + span;
+                    double c = cos[j];
+                    double s = sin[j];
+                    double t1 = c * x[bottom] - s * y[bottom];
+                    double t2 = s * x[bottom] + c * y[bottom];
+                    x[bottom] = x[top] - t1;
+                    y[bottom] = y[top] - t2;
+                    x[top] = x[top] + t1;
+                    y[top] = y[top] + t2;
+                }
+            }
+        }
+
+        @Override
+        int argmax(double[] values, int from, int to) {
+            int best = from;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                if (values[i] > max) {
+                    max = values[i];
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        @Override
+        int firstAtLeast(double[] values, int from, int to, double bound) {
+            for (int i = from; i < to; i++) {
+                if (values[i] >= bound) {
+                    return i;
+                }
+            }
+            return to;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package audiomatching;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+// Decoder that runs the lame command line tool and reads the decoded WAVE
+// data from its standard output. Nothing is written to disk, and closing the
+// reader waits for the process to exit so a failed decode is reported
+// instead of producing a truncated file
+public class LameDecoder implements AudioDecoder {
+
+    // Location of the lame executable
+    private final String lame;
+
+    // Uses the lame script installed on the ccis machines unless the
+    // audiomatching.lame system property points somewhere else
+    LameDecoder() {
+        this(System.getProperty("audiomatching.lame"
+                , "/course/cs5500f14/bin/lame"));
+    }
+
+    LameDecoder(String lame) {
+        this.lame = lame;
+    }
+
+    @Override
+    public PcmReader open(File file, int tokenSize) throws IOException {
+        if (!new File(lame).canExecute()) {
+            return null;
+        }
+        ProcessBuilder builder = new ProcessBuilder(lame, "--quiet"
+                , "--decode", file.getCanonicalPath(), "-");
+        builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+        final Process process = builder.start();
+
+        InputStream out = new FilterInputStream(
+                new BufferedInputStream(process.getInputStream())) {
+            // Wait for lame to finish and check that it succeeded
+            @Override
+            public void close() throws IOException {
+                super.close();
+                try {
+                    if (process.waitFor() != 0) {
+                        throw new IOException("lame failed to decode "
+                                + file);
+                    }
+                } catch (InterruptedException ex) {
+                    process.destroy();
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while decoding "
+                            + file);
+                }
+            }
+        };
+
+        try {
+            AudioInputStream in = AudioSystem.getAudioInputStream(out);
+            return new PcmReader(in, in.getFormat(), tokenSize);
+        } catch (UnsupportedAudioFileException ex) {
+            // lame did not produce any WAVE data
+            abandon(process);
+            return null;
+        } catch (IOException | RuntimeException | Error ex) {
+            abandon(process);
+            throw ex;
+        }
+    }
+
+    // Given: a lame process whose output won't be read
+    // Closes its output, kills it and waits for it to exit, so neither the
+    // stream nor the process outlives a failed open()
+    private static void abandon(Process process) {
+        try {
+            process.getInputStream().close();
+        } catch (IOException ex) {
+            // The process is killed anyway
+        }
+        process.destroy();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                process.waitFor();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package audiomatching;
+
+import java.util.List;
+
+// Inverted index from landmark hashes to the places they occur in a set of
+// tracks fingerprinted with Landmarks. Landmarks match only if their hashes
+// are equal, so a query landmark looks at a single posting list, and since
+// a landmark hash is made of two peaks and the time between them the lists
+// are short even for large catalogs.
+// Every posting list holds (track id, anchor frame) pairs. The tracks and
+// the posting lists are held off the heap, in a TrackTable and a
+// PostingTable.
+// Unlike chunks, only a part of the landmarks of two recordings of the
+// same sound agree: a little noise or a shift of a fraction of a frame
+// moves some of their peaks. The landmarks of unrelated sounds on the
+// other hand hardly ever line up at any delay, so two tracks match once
+// ALIGNED landmarks line up, whatever their length, see required()
+public class LandmarkIndex implements TrackIndex {
+
+    // Landmarks two tracks must have in common at the same delay to match
+    static final int ALIGNED = 20;
+
+    // The indexed tracks, by track id
+    private final TrackTable tracks;
+    // Posting list of every landmark hash
+    private final PostingTable postings;
+    // Ids of the tracks with a base score of zero, in ascending order
+    private final int[] emptyTracks;
+
+    // Given: the tracks to index
+    LandmarkIndex(List<Track> tracks) {
+        this.tracks = new TrackTable(tracks);
+
+        // Count the postings of every hash
+        postings = new PostingTable(2);
+        for (int id = 0; id < tracks.size(); id++) {
+            int[] landmarks = tracks.get(id).getHashes();
+            for (int i = 0; i < landmarks.length; i += 2) {
+                postings.count(landmarks[i]);
+            }
+        }
+
+        // Fill the posting lists
+        postings.allocate();
+        for (int id = 0; id < tracks.size(); id++) {
+            int[] landmarks = tracks.get(id).getHashes();
+            for (int i = 0; i < landmarks.length; i += 2) {
+                long posting = postings.add(landmarks[i]);
+                postings.set(posting, 0, id);
+                postings.set(posting, 1, landmarks[i + 1]);
+            }
+        }
+        emptyTracks = Votes.emptyTracks(tracks);
+    }
+
+    @Override
+    public int size() {
+        return tracks.size();
+    }
+
+    @Override
+    public String getName(int id) {
+        return tracks.getName(id);
+    }
+
+    @Override
+    public double getBaseScore(int id) {
+        return tracks.getBaseScore(id);
+    }
+
+    @Override
+    public Track getTrack(int id) {
+        return tracks.getTrack(id);
+    }
+
+    @Override
+    public int find(String name) {
+        return tracks.find(name);
+    }
+
+    @Override
+    public int[] withDuration(double duration) {
+        return tracks.withDuration(duration);
+    }
+
+    // Returns: the ids of the tracks found by search(), which is already
+    //          a superset of the tracks that match at their best alignment
+    @Override
+    public int[] candidates(int[] query, double baseScore, double accuracy) {
+        return Votes.ids(search(query, baseScore, accuracy));
+    }
+
+    // Process: every query landmark votes, for each posting of its hash, for
+    //          the difference between the two anchor frames. The votes for a
+    //          delay are exactly score() at that delay, so the most voted
+    //          delay of a track is its best alignment, and the track is kept
+    //          if that score reaches required() of the smaller of the two
+    //          base scores; the accuracy is not used. Only one posting list
+    //          is touched per landmark
+    @Override
+    public int[] search(int[] query, double baseScore, double accuracy) {
+        if (baseScore <= 0) {
+            return Votes.allAlignments(tracks.size());
+        }
+
+        Votes votes = new Votes();
+        for (int q = 0; q < query.length; q += 2) {
+            long slot = postings.find(query[q]);
+            if (slot == -1) {
+                continue;
+            }
+            for (long p = postings.start(slot); p < postings.end(slot); p++) {
+                votes.add(postings.get(p, 0)
+                        , postings.get(p, 1) - query[q + 1]);
+            }
+        }
+        return votes.alignments(tracks, emptyTracks, baseScore, 1, ALIGNED);
+    }
+
+    // Given: the smaller of the base scores of two tracks
+    // Returns: the landmarks the tracks must have in common at the same
+    //          delay to match: ALIGNED, or all of them for tracks that have
+    //          fewer
+    static double required(double baseScore) {
+        return Math.min(ALIGNED, baseScore);
+    }
+
+    // Given: the landmarks of two tracks and the delay of the second one
+    //        against the first one, in frames
+    // Returns: the number of landmarks of the first track found in the
+    //          second one with the same hash, at the anchor frame shifted by
+    //          the delay
+    // Process: both lists are in ascending order of frame and then hash, an
+    //          order shifting by the delay keeps, so they are merged in a
+    //          single pass
+    static double score(int[] landmarks1, int[] landmarks2, int delay) {
+        int score = 0;
+        int i = 0;
+        int j = 0;
+        while (i < landmarks1.length && j < landmarks2.length) {
+            long time1 = (long) landmarks1[i + 1] + delay;
+            int order = time1 != landmarks2[j + 1]
+                    ? Long.compare(time1, landmarks2[j + 1])
+                    : Integer.compare(landmarks1[i], landmarks2[j]);
+            if (order < 0) {
+                i += 2;
+            } else if (order > 0) {
+                j += 2;
+            } else {
+                score++;
+                i += 2;
+                j += 2;
+            }
+        }
+        return score;
+    }
+}
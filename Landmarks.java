@@ -0,0 +1,187 @@
+package audiomatching;
+
+import java.util.Arrays;
+
+// Builds the landmark fingerprint of one file from the spectra of its
+// frames, as they are produced. Frames are windows of a token of samples
+// that overlap, see Fingerprinter, so a sound that starts anywhere between
+// two frames has its peaks on the nearest ones.
+// A peak is a bin that is the loudest of its neighbourhood, FREQ_RADIUS
+// bins on each side and TIME_RADIUS frames before and after, and
+// PEAK_FLOOR times louder than the average of its frame, which leaves the
+// noise floor out. Only the PEAKS_PER_FRAME loudest peaks of a frame are
+// kept. Every peak is then used as an anchor and paired with the next
+// FAN_OUT peaks that follow it by 1 to MAX_DELTA frames. A pair gives the
+// landmark hash
+//   f1 << 18 | f2 << 8 | dt
+// where f1 and f2 are the bins of the two peaks and dt the number of frames
+// between them, so the hash does not depend on where the sound starts.
+// The fingerprint holds (hash, anchor frame) pairs packed next to each
+// other in an int[], in ascending order of frame and then hash.
+// Only the last 2 * TIME_RADIUS + 1 spectra and the peaks are kept, so the
+// memory used depends on the number of peaks and not on the length of the
+// file. An instance is used for a single file by a single thread
+class Landmarks {
+
+    // Neighbourhood of a peak in bins, on each side
+    private static final int FREQ_RADIUS = 10;
+    // Neighbourhood of a peak in frames, on each side, about 70 ms
+    private static final int TIME_RADIUS = 12;
+    // How much louder than the average of its frame a peak must be
+    private static final double PEAK_FLOOR = 4;
+    // Most peaks kept for a single frame
+    private static final int PEAKS_PER_FRAME = 5;
+    // Peaks paired with every anchor
+    private static final int FAN_OUT = 5;
+    // Most frames between the two peaks of a landmark, the largest value of
+    // the 8 bits dt is stored in, about 1.5 s
+    private static final int MAX_DELTA = 255;
+
+    // Number of bins of a spectrum
+    private final int bins;
+    // The last spectra, by frame number modulo their number
+    private final double[][] spectra;
+    // For every kept spectrum, the loudest bin within FREQ_RADIUS of each bin
+    private final double[][] spread;
+    // For every kept spectrum, its average magnitude
+    private final double[] means;
+    // Number of frames added so far
+    private int frames;
+
+    // Frame and bin of every peak found so far, in order
+    private int[] peakTimes;
+    private int[] peakBins;
+    private int peaks;
+
+    // Peaks of the frame being searched, loudest first
+    private final int[] topBins;
+    private final double[] topValues;
+
+    // Given: the number of bins of every spectrum
+    Landmarks(int bins) {
+        this.bins = bins;
+        spectra = new double[2 * TIME_RADIUS + 1][bins];
+        spread = new double[2 * TIME_RADIUS + 1][bins];
+        means = new double[2 * TIME_RADIUS + 1];
+        peakTimes = new int[256];
+        peakBins = new int[256];
+        topBins = new int[PEAKS_PER_FRAME];
+        topValues = new double[PEAKS_PER_FRAME];
+    }
+
+    // Given: spectra and the offset in them of the magnitude spectrum of the
+    //        next frame
+    // Keeps a copy of the spectrum and finds the peaks of the frame whose
+    // neighbourhood is now complete
+    void add(double[] magnitude, int offset) {
+        int slot = frames % spectra.length;
+        double[] spectrum = spectra[slot];
+        double[] loudest = spread[slot];
+        double sum = 0;
+        System.arraycopy(magnitude, offset, spectrum, 0, bins);
+        for (int f = 0; f < bins; f++) {
+            sum += spectrum[f];
+            double max = 0;
+            int end = Math.min(bins - 1, f + FREQ_RADIUS);
+            for (int g = Math.max(0, f - FREQ_RADIUS); g <= end; g++) {
+                max = Math.max(max, spectrum[g]);
+            }
+            loudest[f] = max;
+        }
+        means[slot] = sum / bins;
+        frames++;
+
+        if (frames > TIME_RADIUS) {
+            findPeaks(frames - 1 - TIME_RADIUS);
+        }
+    }
+
+    // Returns: the landmarks of the file, as (hash, anchor frame) pairs
+    // Finds the peaks of the last frames, whose neighbourhood ends with the
+    // file, and pairs all the peaks
+    int[] finish() {
+        for (int t = Math.max(0, frames - TIME_RADIUS); t < frames; t++) {
+            findPeaks(t);
+        }
+
+        long[] landmarks = new long[peaks * FAN_OUT];
+        int count = 0;
+        for (int i = 0; i < peaks; i++) {
+            int paired = 0;
+            for (int j = i + 1; j < peaks && paired < FAN_OUT; j++) {
+                int dt = peakTimes[j] - peakTimes[i];
+                if (dt > MAX_DELTA) {
+                    break;
+                }
+                if (dt > 0) {
+                    int hash = peakBins[i] << 18 | peakBins[j] << 8 | dt;
+                    landmarks[count++] = (long) peakTimes[i] << 32 | hash;
+                    paired++;
+                }
+            }
+        }
+
+        // Order by frame and then hash, dropping repeated landmarks
+        Arrays.sort(landmarks, 0, count);
+        int[] result = new int[2 * count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || landmarks[i] != landmarks[i - 1]) {
+                result[size++] = (int) landmarks[i];
+                result[size++] = (int) (landmarks[i] >>> 32);
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    // Given: a frame whose neighbouring spectra are all still kept
+    // Adds the peaks of that frame, in ascending order of bin
+    private void findPeaks(int t) {
+        double[] spectrum = spectra[t % spectra.length];
+        double[] loudest = spread[t % spectra.length];
+        double mean = means[t % spectra.length];
+        int first = Math.max(0, t - TIME_RADIUS);
+        int last = Math.min(frames - 1, t + TIME_RADIUS);
+        int found = 0;
+
+        for (int f = 0; f < bins; f++) {
+            double value = spectrum[f];
+            if (value <= PEAK_FLOOR * mean || value < loudest[f]) {
+                continue;
+            }
+            // Earlier frames win ties so a flat peak is only taken once
+            boolean peak = true;
+            for (int u = first; u <= last && peak; u++) {
+                double other = spread[u % spectra.length][f];
+                peak = u == t || (u < t ? value > other : value >= other);
+            }
+            if (!peak) {
+                continue;
+            }
+            // Keep the loudest peaks of the frame
+            int i = Math.min(found, PEAKS_PER_FRAME - 1);
+            if (found == PEAKS_PER_FRAME && value <= topValues[i]) {
+                continue;
+            }
+            while (i > 0 && topValues[i - 1] < value) {
+                topValues[i] = topValues[i - 1];
+                topBins[i] = topBins[i - 1];
+                i--;
+            }
+            topValues[i] = value;
+            topBins[i] = f;
+            found = Math.min(found + 1, PEAKS_PER_FRAME);
+        }
+
+        Arrays.sort(topBins, 0, found);
+        if (peaks + found > peakTimes.length) {
+            peakTimes = Arrays.copyOf(peakTimes, 2 * peakTimes.length);
+            peakBins = Arrays.copyOf(peakBins, 2 * peakBins.length);
+        }
+        for (int i = 0; i < found; i++) {
+            peakTimes[peaks] = t;
+            peakBins[peaks] = topBins[i];
+            peaks++;
+        }
+    }
+}
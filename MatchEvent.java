@@ -0,0 +1,55 @@
+package audiomatching;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// JDK Flight Recorder event for the comparison of two fingerprinted files,
+// see FingerprintEvent. Pairs are compared far more often than files are
+// fingerprinted, so the event is only created while a recording enables
+// it, see start()
+@Name("audiomatching.Match")
+@Label("Match")
+@Category("Audio Matching")
+@Description("Scoring one file against another")
+class MatchEvent extends Event {
+
+    @Label("Query")
+    String query;
+
+    @Label("Track")
+    String track;
+
+    @Label("Delay")
+    int delay;
+
+    @Label("Score")
+    double score;
+
+    @Label("Required Score")
+    double required;
+
+    @Label("Chunks Examined")
+    @Description("Chunks compared before the decision was known")
+    int examined;
+
+    @Label("Matched")
+    boolean matched;
+
+    private static final EventType TYPE = EventType.getEventType(
+            MatchEvent.class);
+
+    // Returns: a new event that has begun, or null if no recording enables
+    //          the event, so comparisons allocate nothing by default
+    static MatchEvent start() {
+        if (!TYPE.isEnabled()) {
+            return null;
+        }
+        MatchEvent event = new MatchEvent();
+        event.begin();
+        return event;
+    }
+}
@@ -0,0 +1,57 @@
+package audiomatching;
+
+// A track that matches a query, with how well it matches. Results are never
+// modified once created
+public class MatchResult {
+
+    // Canonical path of the matching track
+    private final String name;
+    // Number of chunks, or landmarks, the query and the track have in common
+    private final double score;
+    // Delay of the track against the query, in chunks, or in frames of
+    // landmarks, at which the score was reached. Always 0 unless partial
+    // matching or landmarks are on
+    private final int offset;
+    // The score as a fraction of the smaller of the two base scores, 1 for
+    // a perfect match
+    private final double confidence;
+
+    MatchResult(String name, double score, int offset, double confidence) {
+        this.name = name;
+        this.score = score;
+        this.offset = offset;
+        this.confidence = confidence;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    // Given: the name of the query file
+    // Returns: the line the command line prints for this result,
+    //          "MATCH <query> <track>" with the file names only
+    public String format(String query) {
+        return "MATCH " + baseName(query) + " " + baseName(name);
+    }
+
+    // Given: a path
+    // Returns: the last element of the path
+    private static String baseName(String path) {
+        if (path.contains("/")) {
+            return path.substring(path.lastIndexOf("/") + 1);
+        }
+        return path;
+    }
+}
@@ -0,0 +1,252 @@
+package audiomatching;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Keeps the fingerprints of a reference catalog in memory and answers match
+// requests from other processes on this machine, so a query no longer pays
+// for starting the JVM and fingerprinting and indexing the catalog again.
+//
+// Start it with
+//   java audiomatching.MatchServer [options] <port> <directory>...
+// where the options are the ones of AudioMatching and the directories are
+// loaded once and kept resident. Port 0 picks a free port, the port used is
+// printed once the server is ready. With -watch the directories follow the
+// files added to, changed in or removed from them without a restart, each
+// request seeing either the old or the new catalog as a whole.
+//
+// Protocol, over a TCP connection to the loopback address, in UTF-8:
+//   request: one line with the four usual AudioMatching arguments separated
+//            by tabs. Paths should be absolute, they are resolved by the
+//            server
+//   reply:   the MATCH lines of the request, followed by a single line that
+//            is either "OK" or "ERROR: <message>"
+// The request "METRICS" is answered with the JSON snapshot of the metrics
+// of the server, see Metrics, followed by "OK".
+// A live stream request, "-s" and a directory as the usual arguments, is
+// followed by the raw PCM frames of the stream, in the format the server
+// was started with, until the client shuts down its side of the
+// connection. The MATCH lines are sent as they are found, and "OK" once
+// the stream has ended.
+// A connection can carry any number of requests one after the other, and
+// any number of connections are served at the same time, each on its own
+// thread. The files of a request outside the resident directories are
+// fingerprinted for that request only and forgotten once it is answered
+public class MatchServer {
+
+    // The utilities holding the resident catalog, every request runs on a
+    // view of its own, see AudioMatchingUtilities.forRequest()
+    private final AudioMatchingUtilities utils;
+    // Accepts the connections
+    private final ServerSocket socket;
+    // Serves the connections
+    private final ExecutorService handlers;
+
+    // Given: the utilities holding the resident catalog, and the port to
+    //        listen on, 0 for any free port
+    MatchServer(AudioMatchingUtilities utils, int port) throws IOException {
+        this.utils = utils;
+        socket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "match-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Returns: the port the server listens on
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    // Accepts connections until the server is closed
+    public void serve() {
+        while (!socket.isClosed()) {
+            try {
+                final Socket client = socket.accept();
+                handlers.execute(() -> handle(client));
+            } catch (IOException ex) {
+                // The socket was closed
+            }
+        }
+    }
+
+    // Stops accepting connections. Requests being served are finished
+    public void close() throws IOException {
+        socket.close();
+        handlers.shutdown();
+    }
+
+    // Given: a connection from a client
+    // Answers every request sent on the connection until the client closes
+    // it
+    private void handle(Socket client) {
+        try (Socket connection = client;
+                InputStream in = new BufferedInputStream(
+                        connection.getInputStream());
+                PrintStream out = new PrintStream(
+                        connection.getOutputStream(), false, "UTF-8")) {
+            String line;
+            while ((line = readLine(in)) != null) {
+                String[] args = line.split("\t");
+                try {
+                    if (line.equals("METRICS")) {
+                        out.println(Metrics.json());
+                    } else if (args.length == 4 && args[0].equals("-s")
+                            && args[2].equals("-d")) {
+                        // The frames of the stream follow the request
+                        utils.forRequest().matchStream("stream", in
+                                , args[3], out);
+                    } else {
+                        AudioMatching.run(utils.forRequest(), args, out);
+                    }
+                    out.println("OK");
+                } catch (AudioMatchingException ex) {
+                    out.println("ERROR: " + ex.getMessage());
+                } catch (IOException | RuntimeException ex) {
+                    out.println("ERROR: " + ex);
+                }
+                out.flush();
+            }
+        } catch (IOException ex) {
+            // The client went away
+        }
+    }
+
+    // Given: a stream
+    // Returns: the next line of UTF-8 text read from the stream, without
+    //          its line terminator, or null at the end of the stream.
+    //          Nothing after the line is read, so raw data can follow it
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1)
+                : text;
+    }
+
+    // Given: the port of a running server and the four usual arguments
+    // Returns: 0 if the request succeeded, -1 otherwise
+    // Sends the request to the server and prints its MATCH lines, or the
+    // error it reports. The frames of a live stream, from the standard
+    // input or a file, are sent after the request by another thread
+    static int request(int port, String[] args) {
+        boolean streaming = args.length == 4 && args[0].equals("-s");
+        String[] absolute = Arrays.copyOf(args, args.length);
+        for (int i = streaming ? 3 : 1; i < absolute.length; i += 2) {
+            absolute[i] = new File(absolute[i]).getAbsolutePath();
+        }
+
+        try (Socket connection = new Socket(InetAddress.getLoopbackAddress()
+                , port);
+                PrintWriter out = new PrintWriter(new BufferedWriter(
+                        new OutputStreamWriter(connection.getOutputStream()
+                                , StandardCharsets.UTF_8)));
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        connection.getInputStream()
+                        , StandardCharsets.UTF_8))) {
+            out.println(String.join("\t", absolute));
+            out.flush();
+            if (streaming) {
+                Thread sender = new Thread(() -> {
+                    try (InputStream source = args[1].equals("-")
+                            ? System.in : new FileInputStream(args[1])) {
+                        source.transferTo(connection.getOutputStream());
+                    } catch (IOException ex) {
+                        System.err.println("ERROR: Reading " + args[1]);
+                    }
+                    try {
+                        // Ends the stream
+                        connection.shutdownOutput();
+                    } catch (IOException ex) {
+                        // The connection is already closed
+                    }
+                }, "stream-sender");
+                sender.setDaemon(true);
+                sender.start();
+            }
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.equals("OK")) {
+                    return 0;
+                } else if (line.startsWith("ERROR: ")) {
+                    System.err.println(line);
+                    return -1;
+                }
+                System.out.println(line);
+            }
+            System.err.println("ERROR: The match server closed the "
+                    + "connection");
+            return -1;
+        } catch (IOException ex) {
+            System.err.println("ERROR: No match server on port " + port);
+            return -1;
+        }
+    }
+
+    public static void main(String[] args) {
+        AudioMatchingUtilities utils = new AudioMatchingUtilities();
+        // The options are followed by the port and at least one directory
+        String[] rest;
+        try {
+            rest = AudioMatching.configure(utils, args);
+        } catch (AudioMatchingException ex) {
+            System.err.println("ERROR: " + ex.getMessage());
+            System.exit(-1);
+            return;
+        }
+        if (rest.length < 2) {
+            System.err.println("ERROR: Wrong number of arguments");
+            System.exit(-1);
+        }
+
+        try {
+            for (int i = 1; i < rest.length; i++) {
+                utils.loadResident(rest[i]);
+                if (utils.getWatchInterval() > 0) {
+                    utils.watchResident(rest[i]);
+                }
+            }
+            utils.saveDatabase();
+
+            final MatchServer server = new MatchServer(utils
+                    , Integer.parseInt(rest[0]));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                utils.saveDatabase();
+                Metrics.export();
+            }));
+            System.out.println("Listening on port " + server.getPort());
+            server.serve();
+        } catch (AudioMatchingException ex) {
+            System.err.println("ERROR: " + ex.getMessage());
+            System.exit(-1);
+        } catch (IOException | NumberFormatException ex) {
+            System.err.println("ERROR: Can't listen on port " + rest[0]);
+            System.exit(-1);
+        }
+    }
+}
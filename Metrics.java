@@ -0,0 +1,349 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Where the time of a run goes: a latency histogram for every stage of
+// fingerprinting and matching, counters of the work done, and the errors
+// met on the way, which are otherwise only turned into a missing
+// fingerprint or a missing match.
+// Timing and counting are off by default. Every hook then costs a test of a
+// static field, so the hot loops run as if they were not there; call
+// setEnabled() before any work starts to turn them on. Errors are always
+// counted, they are rare.
+// The metrics are exported as a JSON snapshot, see json(), or as a text
+// summary, see summary(), possibly printed periodically by reportEvery().
+// export() writes both where setOutput() and setSummary() asked for.
+// Independently of this class, fingerprinting a file and matching a pair
+// of files emit the JDK Flight Recorder events FingerprintEvent and
+// MatchEvent whenever a recording enables them
+final class Metrics {
+
+    // The timed stages, by the name of the method they time
+    enum Stage {
+        READ_AUDIO("readAudio"),
+        DECODE("decode"),
+        CONVERT_TO_FREQUENCY("convertToFrequency"),
+        GET_HASH("getHash"),
+        FINGERPRINT("fingerprint"),
+        IS_LENGTH_SAME("isLengthSame"),
+        MATCH_HELPER("matchHelper"),
+        QUERY("query");
+
+        final String label;
+        final Histogram histogram = new Histogram();
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    // The counted quantities
+    enum Counter {
+        FILES("files"),
+        TOKENS("tokens"),
+        HASHES("hashes"),
+        COMPARISONS("comparisons"),
+        SCORED_CHUNKS("scoredChunks"),
+        SKIPPED_PAIRS("skippedPairs"),
+        BYTES_READ("bytesRead"),
+        DUPLICATES("duplicates");
+
+        final String label;
+        final LongAdder adder = new LongAdder();
+
+        Counter(String label) {
+            this.label = label;
+        }
+    }
+
+    // True if stages are timed and counters counted
+    private static boolean enabled;
+    // Number of errors, by where they happened
+    private static final ConcurrentHashMap<String, LongAdder> ERRORS
+            = new ConcurrentHashMap();
+    // Description of the last error
+    private static final AtomicReference<String> LAST_ERROR
+            = new AtomicReference();
+    // Time the metrics were enabled, in nanoseconds
+    private static long since;
+    // Prints the periodic summaries, null until reportEvery() is called
+    private static ScheduledExecutorService reporter;
+    // Where export() writes the JSON snapshot and prints the summary, null
+    // for neither
+    private static File output;
+    private static PrintStream summaryOut;
+
+    private Metrics() {
+    }
+
+    // Given: true to time stages and count the work done
+    static void setEnabled(boolean on) {
+        if (on && !enabled) {
+            since = System.nanoTime();
+        }
+        enabled = on;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    // Returns: the start time of a stage, or 0 if the metrics are off
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // Given: a stage and the time it started, as returned by start()
+    // Records how long the stage took
+    static void stop(Stage stage, long start) {
+        if (enabled) {
+            stage.histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    // Given: a counter and an amount
+    // Adds the amount to the counter
+    static void count(Counter counter, long amount) {
+        if (enabled) {
+            counter.adder.add(amount);
+        }
+    }
+
+    // Given: where an error happened and the error
+    // Counts the error and keeps it as the last one
+    static void error(String where, Throwable error) {
+        ERRORS.computeIfAbsent(where, key -> new LongAdder()).increment();
+        LAST_ERROR.set(where + ": " + error);
+    }
+
+    // Given: where to print and the number of seconds between two summaries
+    // Prints the summary periodically on a daemon thread
+    static synchronized void reportEvery(PrintStream out, long seconds) {
+        if (reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(
+                    runnable -> {
+                        Thread thread = new Thread(runnable, "metrics");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            reporter.scheduleAtFixedRate(() -> out.print(summary())
+                    , seconds, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // Given: the file export() writes the JSON snapshot to, or null
+    static void setOutput(File file) {
+        output = file;
+    }
+
+    // Given: where export() prints the summary, or null
+    static void setSummary(PrintStream out) {
+        summaryOut = out;
+    }
+
+    // Writes the JSON snapshot and prints the summary where they were asked
+    // for
+    static void export() {
+        if (summaryOut != null) {
+            summaryOut.print(summary());
+            summaryOut.flush();
+        }
+        if (output != null) {
+            try {
+                write(output);
+            } catch (IOException ex) {
+                System.err.println("ERROR: Writing metrics to " + output);
+            }
+        }
+    }
+
+    // Given: a file
+    // Writes the JSON snapshot to the file
+    static void write(File file) throws IOException {
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file)
+                , StandardCharsets.UTF_8)) {
+            out.write(json());
+            out.write('\n');
+        }
+    }
+
+    // Returns: the metrics as a JSON object, durations in microseconds:
+    //   {"enabled": .., "uptimeMs": .., "counters": {"files": .., ..},
+    //    "stages": {"readAudio": {"count": .., "totalUs": .., "meanUs": ..,
+    //    "p50Us": .., "p90Us": .., "p99Us": .., "maxUs": ..}, ..},
+    //    "errors": {"<where>": .., ..}, "lastError": ".." or null}
+    // Percentiles are the upper bounds of power of 2 buckets
+    static String json() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"enabled\": ").append(enabled)
+                .append(", \"uptimeMs\": ").append(uptime() / 1000000);
+        json.append(", \"counters\": {");
+        String separator = "";
+        for (Counter counter : Counter.values()) {
+            json.append(separator).append('"').append(counter.label)
+                    .append("\": ").append(counter.adder.sum());
+            separator = ", ";
+        }
+        json.append("}, \"stages\": {");
+        separator = "";
+        for (Stage stage : Stage.values()) {
+            Histogram h = stage.histogram;
+            json.append(separator).append('"').append(stage.label)
+                    .append("\": {\"count\": ").append(h.count())
+                    .append(", \"totalUs\": ").append(h.total() / 1000)
+                    .append(", \"meanUs\": ").append(h.mean() / 1000)
+                    .append(", \"p50Us\": ").append(h.percentile(0.5) / 1000)
+                    .append(", \"p90Us\": ").append(h.percentile(0.9) / 1000)
+                    .append(", \"p99Us\": ")
+                    .append(h.percentile(0.99) / 1000)
+                    .append(", \"maxUs\": ").append(h.max() / 1000)
+                    .append('}');
+            separator = ", ";
+        }
+        json.append("}, \"errors\": {");
+        separator = "";
+        for (Map.Entry<String, Long> error : errors().entrySet()) {
+            json.append(separator).append(quote(error.getKey()))
+                    .append(": ").append(error.getValue());
+            separator = ", ";
+        }
+        String last = LAST_ERROR.get();
+        json.append("}, \"lastError\": ")
+                .append(last == null ? "null" : quote(last)).append('}');
+        return json.toString();
+    }
+
+    // Returns: the metrics as a few lines of text, one per counter, stage
+    //          that ran and kind of error
+    static String summary() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("metrics after %.1f s%n"
+                , uptime() / 1e9));
+        for (Counter counter : Counter.values()) {
+            text.append(String.format("  %-20s %d%n", counter.label
+                    , counter.adder.sum()));
+        }
+        for (Stage stage : Stage.values()) {
+            Histogram h = stage.histogram;
+            if (h.count() > 0) {
+                text.append(String.format("  %-20s %d calls, %.1f ms total"
+                        + ", mean %.1f us, p50 %.1f us, p99 %.1f us"
+                        + ", max %.1f us%n", stage.label, h.count()
+                        , h.total() / 1e6, h.mean() / 1e3
+                        , h.percentile(0.5) / 1e3
+                        , h.percentile(0.99) / 1e3, h.max() / 1e3));
+            }
+        }
+        for (Map.Entry<String, Long> error : errors().entrySet()) {
+            text.append(String.format("  %-20s %d errors%n", error.getKey()
+                    , error.getValue()));
+        }
+        String last = LAST_ERROR.get();
+        if (last != null) {
+            text.append("  last error: ").append(last)
+                    .append(System.lineSeparator());
+        }
+        return text.toString();
+    }
+
+    // Returns: the number of nanoseconds since the metrics were enabled, 0
+    //          if they never were
+    private static long uptime() {
+        return since == 0 ? 0 : System.nanoTime() - since;
+    }
+
+    // Returns: the number of errors by where they happened, sorted
+    private static TreeMap<String, Long> errors() {
+        TreeMap<String, Long> errors = new TreeMap();
+        for (Map.Entry<String, LongAdder> error : ERRORS.entrySet()) {
+            errors.put(error.getKey(), error.getValue().sum());
+        }
+        return errors;
+    }
+
+    // Given: a string
+    // Returns: the string as a JSON string literal
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // Durations recorded by many threads at once. Bucket i counts the
+    // durations of at most 2^i - 1 nanoseconds that did not fit bucket
+    // i - 1
+    static final class Histogram {
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max
+                , 0);
+
+        // Given: a duration in nanoseconds
+        void record(long nanos) {
+            nanos = Math.max(0, nanos);
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        long total() {
+            return total.sum();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        long mean() {
+            long n = count();
+            return n == 0 ? 0 : total() / n;
+        }
+
+        // Given: a fraction between 0 and 1
+        // Returns: the upper bound of the bucket holding that fraction of
+        //          the durations, at most the longest duration
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count());
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(max(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package audiomatching;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+// A fixed number of bytes held outside the Java heap, addressed by long
+// offsets so it can hold more than the 2 GB of a single direct buffer. The
+// bytes live in direct buffers of at most CHUNK bytes, which are the only
+// objects the garbage collector sees, and start zeroed.
+// Ints and floats must be stored at offsets that are multiples of 4, longs
+// and doubles at multiples of 8, so none of them spans two buffers.
+// Absolute accesses never modify the buffers themselves, so once it is
+// filled an arena can be read by any number of threads.
+// Direct buffers count against -XX:MaxDirectMemorySize, which defaults to
+// the maximum heap size. They are freed by the garbage collector along with
+// the arena, or at once by free() when the arena is replaced by a bigger
+// one nothing else can see. A catalog that doesn't fit is reported as an
+// error naming the option, see the README for the memory a catalog takes
+final class OffHeapArena {
+
+    // Size of a full buffer, 1 GB
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK = 1L << CHUNK_BITS;
+    private static final long MASK = CHUNK - 1;
+
+    // sun.misc.Unsafe and its invokeCleaner(), which frees a direct buffer,
+    // see free(). Looked up by reflection, as javac warns about any use of
+    // that class in the sources
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field field = unsafe.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = field.get(null);
+            INVOKE_CLEANER = unsafe.getMethod("invokeCleaner"
+                    , ByteBuffer.class);
+        } catch (ReflectiveOperationException ex) {
+            throw new ExceptionInInitializerError(ex);
+        }
+    }
+
+    private final ByteBuffer[] chunks;
+    private final long size;
+
+    // Given: the number of bytes to hold
+    // Throws an AudioMatchingException if the direct memory left can't hold
+    // them
+    OffHeapArena(long size) {
+        this.size = size;
+        chunks = new ByteBuffer[(int) Math.max(1
+                , (size + CHUNK - 1) >>> CHUNK_BITS)];
+        try {
+            for (int i = 0; i < chunks.length; i++) {
+                long bytes = Math.min(CHUNK
+                        , size - ((long) i << CHUNK_BITS));
+                chunks[i] = ByteBuffer.allocateDirect((int) Math.max(0
+                        , bytes)).order(ByteOrder.nativeOrder());
+            }
+        } catch (OutOfMemoryError ex) {
+            Arrays.fill(chunks, null);
+            throw new AudioMatchingException("Can't hold " + (size >> 20)
+                    + " MB of fingerprints off the heap, raise"
+                    + " -XX:MaxDirectMemorySize, which defaults to the"
+                    + " maximum heap size");
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    // Gives the bytes back to the system right away instead of when the
+    // arena is collected. The arena must not be used afterwards, by any
+    // thread
+    void free() {
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i] != null) {
+                try {
+                    INVOKE_CLEANER.invoke(UNSAFE, chunks[i]);
+                } catch (ReflectiveOperationException ex) {
+                    // Left to the garbage collector
+                }
+                chunks[i] = null;
+            }
+        }
+    }
+
+    int getInt(long offset) {
+        return chunk(offset).getInt((int) (offset & MASK));
+    }
+
+    void putInt(long offset, int value) {
+        chunk(offset).putInt((int) (offset & MASK), value);
+    }
+
+    long getLong(long offset) {
+        return chunk(offset).getLong((int) (offset & MASK));
+    }
+
+    void putLong(long offset, long value) {
+        chunk(offset).putLong((int) (offset & MASK), value);
+    }
+
+    float getFloat(long offset) {
+        return chunk(offset).getFloat((int) (offset & MASK));
+    }
+
+    void putFloat(long offset, float value) {
+        chunk(offset).putFloat((int) (offset & MASK), value);
+    }
+
+    double getDouble(long offset) {
+        return chunk(offset).getDouble((int) (offset & MASK));
+    }
+
+    void putDouble(long offset, double value) {
+        chunk(offset).putDouble((int) (offset & MASK), value);
+    }
+
+    // Given: an offset and bytes
+    // Stores the bytes from the offset on
+    void put(long offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            chunk(offset + i).put((int) ((offset + i) & MASK), bytes[i]);
+        }
+    }
+
+    // Given: an offset and a buffer
+    // Fills the buffer with the bytes from the offset on
+    void get(long offset, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = chunk(offset + i).get((int) ((offset + i) & MASK));
+        }
+    }
+
+    // Returns: the buffer holding the given offset
+    private ByteBuffer chunk(long offset) {
+        return chunks[(int) (offset >>> CHUNK_BITS)];
+    }
+}
@@ -0,0 +1,237 @@
+package audiomatching;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import javax.sound.sampled.AudioFormat;
+
+// Decodes interleaved PCM frames into mono samples one token at a time.
+// The frames either come from a stream, in which case the reader owns a
+// single byte buffer large enough for one token, or from a buffer such as
+// the mapped sample region of a WaveFile, in which case they are decoded in
+// place. Either way the decoded samples are written into a buffer supplied
+// by the caller, so the memory used while reading a file does not depend on
+// the length of the file.
+// Supported formats: 8/16/24/32 bit, signed or unsigned, 32 bit float,
+// little or big endian, any number of channels (downmixed to mono by
+// averaging)
+public class PcmReader {
+
+    // The stream the raw frames are read from, null when decoding a buffer
+    private final InputStream in;
+    // Raw bytes the frames are decoded from
+    private final ByteBuffer data;
+    // Raw bytes of one token when reading from a stream
+    private final byte[] bytes;
+    // Number of interleaved channels in every frame
+    private final int channels;
+    // Number of bytes used by a single sample of a single channel
+    private final int sampleSize;
+    // Number of bytes used by a single frame (all channels)
+    private final int frameSize;
+    // Number of frames in one token
+    private final int tokenSize;
+    // True if the samples are stored as signed integers
+    private final boolean signed;
+    // True if the samples are stored as floats, already in [-1, 1]
+    private final boolean floating;
+    // Scales a decoded integer sample to the range [-1, 1)
+    private final double scale;
+    // Number of frames per second
+    private final float sampleRate;
+    // Offset in data of the next frame to decode
+    private int position;
+    // Number of frames decoded so far
+    private long framesRead;
+
+    // Given: a stream of raw PCM frames, the format of those frames and
+    //        the number of samples that make up one token
+    // Throws an IOException if the format is not a supported PCM format
+    PcmReader(InputStream in, AudioFormat format, int tokenSize)
+            throws IOException {
+        this(in, null, format, tokenSize);
+    }
+
+    // Given: a buffer holding raw PCM frames between its position and its
+    //        limit, the format of those frames and the number of samples
+    //        that make up one token
+    // Throws an IOException if the format is not a supported PCM format
+    PcmReader(ByteBuffer data, AudioFormat format, int tokenSize)
+            throws IOException {
+        this(null, data, format, tokenSize);
+    }
+
+    private PcmReader(InputStream in, ByteBuffer data, AudioFormat format
+            , int tokenSize) throws IOException {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+
+        boolean floating = encoding.equals(AudioFormat.Encoding.PCM_FLOAT);
+        if (!encoding.equals(AudioFormat.Encoding.PCM_SIGNED)
+                && !encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)
+                && !floating) {
+            throw new IOException("Unsupported encoding " + encoding);
+        }
+        if (bits != 8 && bits != 16 && bits != 24 && bits != 32
+                || floating && bits != 32) {
+            throw new IOException("Unsupported sample size " + bits);
+        }
+
+        this.in = in;
+        this.channels = format.getChannels();
+        this.sampleSize = bits / 8;
+        this.frameSize = sampleSize * channels;
+        this.tokenSize = tokenSize;
+        this.signed = encoding.equals(AudioFormat.Encoding.PCM_SIGNED);
+        this.floating = floating;
+        this.scale = 1.0 / (1L << (bits - 1));
+        this.sampleRate = format.getSampleRate();
+
+        if (in != null) {
+            this.bytes = new byte[tokenSize * frameSize];
+            this.data = ByteBuffer.wrap(bytes);
+        } else {
+            this.bytes = null;
+            this.data = data.slice();
+        }
+        this.data.order(format.isBigEndian()
+                ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Given: a buffer that can hold at least one token
+    // Returns: the number of samples written to the buffer, which is less
+    //          than a full token only at the end of the input, or -1 if
+    //          the input has no more complete frames
+    public int read(double[] token) throws IOException {
+        return read(token, 0);
+    }
+
+    // Same as read(double[]) but the samples are written from offset on, so
+    // several tokens can be decoded one after the other into one buffer
+    public int read(double[] buffer, int offset) throws IOException {
+        int frames = fill();
+        for (int i = 0; i < frames; i++) {
+            buffer[offset + i] = frame(position + i * frameSize);
+        }
+        position += frames * frameSize;
+        framesRead += frames;
+        return frames > 0 ? frames : -1;
+    }
+
+    // Same as read(double[]) but for single precision buffers
+    public int read(float[] token) throws IOException {
+        int frames = fill();
+        for (int i = 0; i < frames; i++) {
+            token[i] = (float) frame(position + i * frameSize);
+        }
+        position += frames * frameSize;
+        framesRead += frames;
+        return frames > 0 ? frames : -1;
+    }
+
+    // Returns: the duration in seconds of the frames decoded so far, which
+    //          is the duration of the whole input once it has been read
+    public double getDuration() {
+        return (framesRead + 0.0) / sampleRate;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    // Returns: the number of frames decoded so far
+    public long getFrames() {
+        return framesRead;
+    }
+
+    // Returns: the number of bytes of the frames decoded so far
+    public long getBytesRead() {
+        return framesRead * frameSize;
+    }
+
+    // Closes the underlying stream, if any
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    // Makes the next token of raw bytes available at position
+    // Returns: the number of complete frames available, at most one token
+    private int fill() throws IOException {
+        if (in == null) {
+            return Math.min(tokenSize
+                    , (data.limit() - position) / frameSize);
+        }
+        int total = 0;
+        while (total < bytes.length) {
+            int count = in.read(bytes, total, bytes.length - total);
+            if (count == -1) {
+                break;
+            }
+            total += count;
+        }
+        position = 0;
+        return total / frameSize;
+    }
+
+    // Given: the offset of a frame inside data
+    // Returns: the average of all the channels in that frame
+    private double frame(int offset) {
+        if (floating) {
+            double sum = 0;
+            for (int c = 0; c < channels; c++) {
+                sum += data.getFloat(offset + c * sampleSize);
+            }
+            return sum / channels;
+        }
+        if (channels == 1) {
+            return sample(offset) * scale;
+        }
+        double sum = 0;
+        for (int c = 0; c < channels; c++) {
+            sum += sample(offset + c * sampleSize);
+        }
+        return (sum / channels) * scale;
+    }
+
+    // Given: the offset of a sample inside data
+    // Returns: the sample as a signed integer value
+    private int sample(int offset) {
+        int value;
+        switch (sampleSize) {
+            case 1:
+                value = data.get(offset);
+                break;
+            case 2:
+                value = data.getShort(offset);
+                break;
+            case 3:
+                if (data.order() == ByteOrder.BIG_ENDIAN) {
+                    value = (data.get(offset) << 16)
+                            | ((data.get(offset + 1) & 0xFF) << 8)
+                            | (data.get(offset + 2) & 0xFF);
+                } else {
+                    value = (data.get(offset + 2) << 16)
+                            | ((data.get(offset + 1) & 0xFF) << 8)
+                            | (data.get(offset) & 0xFF);
+                }
+                break;
+            default:
+                value = data.getInt(offset);
+                break;
+        }
+        if (!signed) {
+            // Flipping the top bit moves unsigned samples around zero
+            value ^= 1 << (sampleSize * 8 - 1);
+            int shift = 32 - sampleSize * 8;
+            value = (value << shift) >> shift;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,193 @@
+package audiomatching;
+
+import java.util.Arrays;
+
+// Open addressing hash table from long keys to posting lists, all held off
+// the heap in OffHeapArenas. Every posting is WIDTH ints, and the lists are
+// packed one after the other, so a lookup touches a single slot and a
+// single contiguous run of postings, and the table costs the garbage
+// collector two objects whatever its size.
+// A table is built in two passes over the same postings: count() every
+// posting, then allocate(), then add() every posting again in the order its
+// list should have. It is read only afterwards and can be shared between
+// threads. Postings are numbered from 0 across all the lists
+final class PostingTable {
+
+    // Bytes of a slot: key (long), number of postings (int, 0 for an empty
+    // slot), number added so far (int), number of its first posting (long)
+    private static final int SLOT = 24;
+
+    // Number of ints in a posting
+    private final int width;
+    // The slots, a power of 2 of them, at most half full
+    private OffHeapArena slots;
+    private int capacity;
+    // Number of keys, and of postings
+    private int keys;
+    private long total;
+    // The postings, once allocated
+    private OffHeapArena postings;
+
+    // Given: the number of ints in every posting
+    PostingTable(int width) {
+        this.width = width;
+        capacity = 16;
+        slots = new OffHeapArena((long) capacity * SLOT);
+    }
+
+    // Returns: the number of keys
+    int size() {
+        return keys;
+    }
+
+    // Given: the key of a posting
+    // Counts one more posting for that key
+    void count(long key) {
+        long slot = probe(key);
+        if (slots.getInt(slot + 8) == 0) {
+            if (2 * (keys + 1) > capacity) {
+                grow();
+                slot = probe(key);
+            }
+            slots.putLong(slot, key);
+            keys++;
+        }
+        slots.putInt(slot + 8, slots.getInt(slot + 8) + 1);
+        total++;
+    }
+
+    // Lays out the lists once every posting has been counted
+    void allocate() {
+        long start = 0;
+        for (long slot = 0; slot < slots.size(); slot += SLOT) {
+            slots.putLong(slot + 16, start);
+            start += slots.getInt(slot + 8);
+        }
+        postings = new OffHeapArena(total * width * 4);
+    }
+
+    // Given: the key of a counted posting
+    // Returns: the number of the next posting of its list, to be filled
+    //          with set()
+    long add(long key) {
+        long slot = probe(key);
+        int added = slots.getInt(slot + 12);
+        slots.putInt(slot + 12, added + 1);
+        return slots.getLong(slot + 16) + added;
+    }
+
+    // Given: one of the ints of a posting
+    // Sorts every list by that int once every posting has been added.
+    // Postings with the same value keep the order they were added in
+    void sort(int field) {
+        int[] list = new int[0];
+        long[] order = new long[0];
+        for (long slot = 0; slot < slots.size(); slot += SLOT) {
+            int count = slots.getInt(slot + 8);
+            if (count < 2) {
+                continue;
+            }
+            long start = slots.getLong(slot + 16);
+            if (order.length < count) {
+                list = new int[count * width];
+                order = new long[count];
+            }
+            // Sort the values along with the positions, which keeps equal
+            // values in order, then move the postings to their new place
+            for (int i = 0; i < count; i++) {
+                for (int f = 0; f < width; f++) {
+                    list[i * width + f] = get(start + i, f);
+                }
+                order[i] = (long) list[i * width + field] << 32 | i;
+            }
+            Arrays.sort(order, 0, count);
+            for (int i = 0; i < count; i++) {
+                int from = (int) order[i];
+                for (int f = 0; f < width; f++) {
+                    set(start + i, f, list[from * width + f]);
+                }
+            }
+        }
+    }
+
+    // Given: a slot returned by find(), one of the ints of a posting and a
+    //        value, the list of the slot being sorted by that int
+    // Returns: the first posting of the list whose int is at least the
+    //          value, or end() if there is none
+    long lowerBound(long slot, int field, int value) {
+        long low = start(slot);
+        long high = end(slot);
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (get(middle, field) < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // Given: a posting, one of its ints and a value
+    void set(long posting, int field, int value) {
+        postings.putInt((posting * width + field) * 4, value);
+    }
+
+    // Given: a posting and one of its ints
+    // Returns: the value of that int
+    int get(long posting, int field) {
+        return postings.getInt((posting * width + field) * 4);
+    }
+
+    // Given: a key
+    // Returns: the slot of the key, or -1 if it has no postings
+    long find(long key) {
+        long slot = probe(key);
+        return slots.getInt(slot + 8) == 0 ? -1 : slot;
+    }
+
+    // Given: a slot returned by find()
+    // Returns: the first posting of its list
+    long start(long slot) {
+        return slots.getLong(slot + 16);
+    }
+
+    // Given: a slot returned by find()
+    // Returns: the posting after the last one of its list
+    long end(long slot) {
+        return slots.getLong(slot + 16) + slots.getInt(slot + 8);
+    }
+
+    // Given: a key
+    // Returns: the slot holding the key, or the empty slot where it belongs
+    private long probe(long key) {
+        int mask = capacity - 1;
+        int i = (int) Votes.mix(key) & mask;
+        while (true) {
+            long slot = (long) i * SLOT;
+            if (slots.getInt(slot + 8) == 0 || slots.getLong(slot) == key) {
+                return slot;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    // Doubles the number of slots, moving every key and count. The old slots
+    // are freed at once, so building a table never holds more than the
+    // last two sets of slots
+    private void grow() {
+        OffHeapArena old = slots;
+        capacity *= 2;
+        slots = new OffHeapArena((long) capacity * SLOT);
+        for (long slot = 0; slot < old.size(); slot += SLOT) {
+            int count = old.getInt(slot + 8);
+            if (count > 0) {
+                long key = old.getLong(slot);
+                long moved = probe(key);
+                slots.putLong(moved, key);
+                slots.putInt(moved + 8, count);
+            }
+        }
+        old.free();
+    }
+}
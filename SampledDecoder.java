@@ -0,0 +1,44 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+// In-process decoder that uses the javax.sound.sampled service providers
+// installed in the JVM. Compressed formats are converted to 16 bit signed
+// PCM on the fly, so with an MP3 provider on the class path (for example
+// mp3spi) MP3 files are decoded without any external process or temp file
+public class SampledDecoder implements AudioDecoder {
+
+    @Override
+    public PcmReader open(File file, int tokenSize) throws IOException {
+        AudioInputStream in;
+        try {
+            in = AudioSystem.getAudioInputStream(file);
+        } catch (UnsupportedAudioFileException ex) {
+            return null;
+        }
+
+        AudioFormat format = in.getFormat();
+        AudioFormat.Encoding encoding = format.getEncoding();
+        if (!encoding.equals(AudioFormat.Encoding.PCM_SIGNED)
+                && !encoding.equals(AudioFormat.Encoding.PCM_UNSIGNED)
+                && !(encoding.equals(AudioFormat.Encoding.PCM_FLOAT)
+                        && format.getSampleSizeInBits() == 32)) {
+            AudioFormat pcm = new AudioFormat(
+                    AudioFormat.Encoding.PCM_SIGNED, format.getSampleRate()
+                    , 16, format.getChannels(), format.getChannels() * 2
+                    , format.getSampleRate(), false);
+            if (!AudioSystem.isConversionSupported(pcm, format)) {
+                in.close();
+                return null;
+            }
+            in = AudioSystem.getAudioInputStream(pcm, in);
+            format = pcm;
+        }
+        return new PcmReader(in, format, tokenSize);
+    }
+}
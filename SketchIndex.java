@@ -0,0 +1,194 @@
+package audiomatching;
+
+import java.util.Arrays;
+import java.util.List;
+
+// A coarse first tier in front of the index of a set of tracks fingerprinted
+// with band hashes. Every track is summed up by a sketch of SIZE values, and
+// a query is only compared with the tracks whose sketch shares a band of
+// ROWS values with its own, which are looked up in a PostingTable instead of
+// going through the posting lists of every query hash.
+// A sketch is a MinHash of the features of a track, one pair of features
+// per chunk: its offset along with the cell of its hash in two grids of
+// cells twice the tolerance wide, shifted by half a cell. Two hashes within
+// the tolerance share a cell in at least one of the grids, so every pair of
+// matching chunks shares a feature, and tracks that match share a good
+// fraction of their features while unrelated tracks share almost none. The
+// MinHash is computed in one pass, every feature going to one of the SIZE
+// values by its hash, and empty values are filled from the next one.
+// The tier is probabilistic: a pair of tracks with a fraction J of
+// features in common shares a band with probability 1 - (1 - J^ROWS)^BANDS.
+// Bands of a single value keep that over 0.99 down to J of 0.07, well below
+// the J of about 0.2 of tracks that only just reach ACCURACY with every
+// matching hash across a cell boundary, at the cost of a few more unrelated
+// candidates for the index to turn down. Shifted matches are not aligned by
+// chunk, so search() goes to the index unchanged
+public class SketchIndex implements TrackIndex {
+
+    // Number of values in a sketch
+    static final int SIZE = 64;
+    // Number of values in a band, and number of bands
+    static final int ROWS = 1;
+    static final int BANDS = SIZE / ROWS;
+
+    // Index doing the fine matching
+    private final TrackIndex index;
+    // Width of a cell of the grids
+    private final long cell;
+    // Track ids by band key, see bandKey()
+    private final PostingTable bands;
+    // Ids of the tracks with a base score of zero, in ascending order
+    private final int[] emptyTracks;
+
+    // Given: the tracks to index and the index over them doing the fine
+    //        matching
+    SketchIndex(List<Track> tracks, HashIndex index) {
+        this.index = index;
+        cell = 2 * index.getTolerance();
+        bands = new PostingTable(1);
+
+        // Sketches are cheap, so they are computed again for the second pass
+        // rather than kept
+        long[] sketch = new long[SIZE];
+        for (Track track : tracks) {
+            if (sketch(track.getHashes(), sketch)) {
+                for (int band = 0; band < BANDS; band++) {
+                    bands.count(bandKey(sketch, band));
+                }
+            }
+        }
+        bands.allocate();
+        for (int id = 0; id < tracks.size(); id++) {
+            if (sketch(tracks.get(id).getHashes(), sketch)) {
+                for (int band = 0; band < BANDS; band++) {
+                    bands.set(bands.add(bandKey(sketch, band)), 0, id);
+                }
+            }
+        }
+        emptyTracks = Votes.emptyTracks(tracks);
+    }
+
+    @Override
+    public int size() {
+        return index.size();
+    }
+
+    @Override
+    public String getName(int id) {
+        return index.getName(id);
+    }
+
+    @Override
+    public double getBaseScore(int id) {
+        return index.getBaseScore(id);
+    }
+
+    @Override
+    public Track getTrack(int id) {
+        return index.getTrack(id);
+    }
+
+    @Override
+    public int find(String name) {
+        return index.find(name);
+    }
+
+    @Override
+    public int[] withDuration(double duration) {
+        return index.withDuration(duration);
+    }
+
+    // Returns: the ids of the tracks whose sketch shares a band with the
+    //          sketch of the query, which very probably include every track
+    //          that matches the query as it is, see above
+    @Override
+    public int[] candidates(int[] query, double baseScore, double accuracy) {
+        if (baseScore <= 0) {
+            return Votes.allTracks(index.size());
+        }
+
+        long[] sketch = new long[SIZE];
+        int[] ids = Arrays.copyOf(emptyTracks, emptyTracks.length + 16);
+        int size = emptyTracks.length;
+        if (sketch(query, sketch)) {
+            for (int band = 0; band < BANDS; band++) {
+                long slot = bands.find(bandKey(sketch, band));
+                if (slot == -1) {
+                    continue;
+                }
+                for (long p = bands.start(slot); p < bands.end(slot); p++) {
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, 2 * size);
+                    }
+                    ids[size++] = bands.get(p, 0);
+                }
+            }
+        }
+
+        // Sort the ids and drop the tracks found in several bands
+        Arrays.sort(ids, 0, size);
+        int unique = 0;
+        for (int i = 0; i < size; i++) {
+            if (unique == 0 || ids[i] != ids[unique - 1]) {
+                ids[unique++] = ids[i];
+            }
+        }
+        return Arrays.copyOf(ids, unique);
+    }
+
+    @Override
+    public int[] search(int[] query, double baseScore, double accuracy) {
+        return index.search(query, baseScore, accuracy);
+    }
+
+    // Given: the hashes of a track and where to put its sketch
+    // Returns: false if the track has no hashes and so no sketch
+    private boolean sketch(int[] hashes, long[] sketch) {
+        if (hashes.length == 0) {
+            return false;
+        }
+        Arrays.fill(sketch, Long.MAX_VALUE);
+        for (int offset = 0; offset < hashes.length; offset++) {
+            long hash = hashes[offset];
+            for (int grid = 0; grid < 2; grid++) {
+                long cellOf = Math.floorDiv(hash + grid * (cell / 2), cell);
+                long value = Votes.mix(((long) offset << 33 | (long) grid << 32)
+                        ^ Votes.mix(cellOf));
+                // The top bits pick the value the feature goes to, the
+                // others are what is kept
+                int i = (int) (value >>> 58);
+                long rest = value & ((1L << 58) - 1);
+                if (rest < sketch[i]) {
+                    sketch[i] = rest;
+                }
+            }
+        }
+
+        // Fill every empty value from the next non empty one, told apart by
+        // the distance between them
+        boolean[] filled = new boolean[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            filled[i] = sketch[i] != Long.MAX_VALUE;
+        }
+        for (int i = 0; i < SIZE; i++) {
+            if (!filled[i]) {
+                int distance = 1;
+                while (!filled[(i + distance) % SIZE]) {
+                    distance++;
+                }
+                sketch[i] = Votes.mix(sketch[(i + distance) % SIZE] + distance);
+            }
+        }
+        return true;
+    }
+
+    // Given: a sketch and a band
+    // Returns: the key of the values of that band
+    private static long bandKey(long[] sketch, int band) {
+        long key = band;
+        for (int row = 0; row < ROWS; row++) {
+            key = Votes.mix(key ^ sketch[band * ROWS + row]);
+        }
+        return key;
+    }
+}
@@ -0,0 +1,139 @@
+package audiomatching;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+import javax.sound.sampled.AudioFormat;
+
+// Identifies what is playing on a live stream of PCM audio, such as a
+// broadcast feed, against an indexed catalog.
+// The stream is fingerprinted as it arrives, with the same transform and
+// band hashes as files. Files are hashed token by token from their first
+// sample, but a track can start anywhere in the stream, and band hashes
+// only survive a small fraction of a token of misalignment. So the stream
+// is hashed at PHASES phases: every token size / PHASES samples the last
+// token of samples is hashed, and the hashes of every phase form a
+// fingerprint of their own, one of which is nearly aligned with the track.
+// The hashes of the last WINDOW tokens of every phase are kept in a ring.
+// Every HOP tokens the window of every phase is matched against the
+// catalog as an excerpt, at its best alignment, and the best matching track
+// over all the phases is reported when it differs from the last one
+// reported. A window spans four fifths of the latency budget and is matched
+// every quarter of a window, so a track is reported at most one latency
+// budget of audio after it starts, provided the matching keeps up with the
+// stream.
+// A matcher only holds a few buffers, and the work per token is PHASES
+// transforms and hashes plus PHASES catalog searches every HOP tokens, so a
+// single core keeps up with many streams, each on its own matcher and
+// thread
+class StreamMatcher {
+
+    // Number of phases the stream is hashed at
+    static final int PHASES = 8;
+
+    // The utilities holding the catalog
+    private final AudioMatchingUtilities utils;
+    // Index over the catalog
+    private final TrackIndex index;
+    // Turns tokens into band hashes
+    private final Fingerprinter fingerprinter;
+    // Name of the stream in the MATCH lines
+    private final String name;
+    // Number of samples in a token, and between two phases
+    private final int tokenSize;
+    private final int step;
+    // Number of tokens in a window, and between two searches
+    private final int window;
+    private final int hop;
+
+    // Given: the utilities holding the catalog, an index over it, the
+    //        fingerprinter of band hashes, the name of the stream, and the
+    //        latency budget in tokens
+    StreamMatcher(AudioMatchingUtilities utils, TrackIndex index
+            , Fingerprinter fingerprinter, String name, int budget) {
+        this.utils = utils;
+        this.index = index;
+        this.fingerprinter = fingerprinter;
+        this.name = name;
+        tokenSize = fingerprinter.getTokenSize();
+        step = tokenSize / PHASES;
+        window = Math.max(4, budget * 4 / 5);
+        hop = Math.max(1, window / 4);
+    }
+
+    // Given: a stream of raw PCM frames and their format
+    // Returns: a reader over the stream suited to run()
+    // Throws an IOException if the format is not a supported PCM format
+    PcmReader reader(InputStream in, AudioFormat format) throws IOException {
+        return new PcmReader(in, format, step);
+    }
+
+    // Given: a reader returned by reader() and where to print the matches
+    // Matches the stream until it ends. Every match is printed, and flushed,
+    // as "MATCH <stream> <track> <seconds>" where seconds is the time in the
+    // stream at which the track was recognized
+    // Throws an IOException if the stream can't be read
+    void run(PcmReader reader, PrintStream out) throws IOException {
+        FFT fft = FFT.plan(tokenSize);
+        double[] samples = new double[tokenSize];
+        double[] token = new double[tokenSize];
+        double[] magnitude = new double[tokenSize / 2 + 1];
+        int[] consideredPoints = new int[4];
+        double[] maxScores = new double[4];
+        // Hashes of the last window of every phase, interleaved: hash n of
+        // the stream is in slot n % ring.length and belongs to phase
+        // n % PHASES
+        int[] ring = new int[window * PHASES];
+        int[] hashes = new int[window];
+        long steps = 0;
+        String last = null;
+
+        while (reader.read(token, 0) == step) {
+            // Slide the last token of samples by one step
+            System.arraycopy(samples, step, samples, 0, tokenSize - step);
+            System.arraycopy(token, 0, samples, tokenSize - step, step);
+            steps++;
+            if (steps < PHASES) {
+                continue;
+            }
+
+            fingerprinter.convertToFrequency(fft, samples, magnitude);
+            long n = steps - PHASES;
+            ring[(int) (n % ring.length)] = fingerprinter.getHash(magnitude
+                    , consideredPoints, maxScores);
+            if (n + 1 < ring.length || (n + 1 - ring.length) % (hop * PHASES)
+                    != 0) {
+                continue;
+            }
+
+            // Match the window of every phase, oldest token first
+            MatchResult best = null;
+            for (int phase = 0; phase < PHASES; phase++) {
+                for (int i = 0; i < window; i++) {
+                    long m = n + 1 - ring.length + phase + (long) i * PHASES;
+                    hashes[i] = ring[(int) (m % ring.length)];
+                }
+                Track excerpt = new Track(name, hashes, new TrackMetadata(
+                        window * tokenSize / reader.getSampleRate()
+                        , reader.getSampleRate(), 1, window * tokenSize, 0)
+                        , window);
+                List<MatchResult> found = utils.query(excerpt, index, 1
+                        , true);
+                if (!found.isEmpty() && (best == null
+                        || found.get(0).getScore() > best.getScore())) {
+                    best = found.get(0);
+                }
+            }
+
+            String track = best == null ? null : best.getName();
+            if (track != null && !track.equals(last)) {
+                double seconds = steps * step / reader.getSampleRate();
+                out.println(best.format(name)
+                        + String.format(" %.2f", seconds));
+                out.flush();
+            }
+            last = track;
+        }
+    }
+}
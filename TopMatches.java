@@ -0,0 +1,137 @@
+package audiomatching;
+
+// The K best scoring tracks seen so far, kept in a binary min-heap over
+// parallel primitive arrays so offering a track allocates nothing. The
+// weakest of the kept tracks is at the root: a new track only gets in if it
+// beats that one, which is also the bound a search can stop at.
+// Between equal scores the track with the lower id ranks higher
+class TopMatches {
+
+    // Score, id, offset and confidence of every kept track, by heap slot
+    private final double[] scores;
+    private final int[] ids;
+    private final int[] offsets;
+    private final double[] confidences;
+    // Number of kept tracks
+    private int size;
+
+    // Given: the most tracks to keep, at least 1
+    TopMatches(int k) {
+        scores = new double[k];
+        ids = new int[k];
+        offsets = new int[k];
+        confidences = new double[k];
+    }
+
+    // Returns: the number of kept tracks
+    int size() {
+        return size;
+    }
+
+    // Returns: true if K tracks are kept, so a track must beat the weakest
+    //          one to get in
+    boolean isFull() {
+        return size == scores.length;
+    }
+
+    // Returns: the score of the weakest kept track
+    double minScore() {
+        return scores[0];
+    }
+
+    // Given: a track and its result
+    // Keeps the track if there is room or if it beats the weakest kept
+    // track, which is then dropped
+    void offer(int id, double score, int offset, double confidence) {
+        if (size < scores.length) {
+            set(size, id, score, offset, confidence);
+            siftUp(size++);
+        } else if (less(ids[0], scores[0], id, score)) {
+            set(0, id, score, offset, confidence);
+            siftDown(0, size);
+        }
+    }
+
+    // Orders the kept tracks from the best to the weakest, so slot i holds
+    // the track ranked i. No track can be offered afterwards
+    void sort() {
+        for (int last = size - 1; last > 0; last--) {
+            swap(0, last);
+            siftDown(0, last);
+        }
+    }
+
+    int getId(int slot) {
+        return ids[slot];
+    }
+
+    double getScore(int slot) {
+        return scores[slot];
+    }
+
+    int getOffset(int slot) {
+        return offsets[slot];
+    }
+
+    double getConfidence(int slot) {
+        return confidences[slot];
+    }
+
+    // Returns: true if the first track ranks below the second one
+    private static boolean less(int id1, double score1, int id2
+            , double score2) {
+        return score1 < score2 || (score1 == score2 && id1 > id2);
+    }
+
+    private boolean less(int slot1, int slot2) {
+        return less(ids[slot1], scores[slot1], ids[slot2], scores[slot2]);
+    }
+
+    private void set(int slot, int id, double score, int offset
+            , double confidence) {
+        ids[slot] = id;
+        scores[slot] = score;
+        offsets[slot] = offset;
+        confidences[slot] = confidence;
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0 && less(slot, (slot - 1) / 2)) {
+            swap(slot, (slot - 1) / 2);
+            slot = (slot - 1) / 2;
+        }
+    }
+
+    // Given: a slot and the number of slots in the heap
+    private void siftDown(int slot, int end) {
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= end) {
+                return;
+            }
+            if (child + 1 < end && less(child + 1, child)) {
+                child++;
+            }
+            if (!less(child, slot)) {
+                return;
+            }
+            swap(slot, child);
+            slot = child;
+        }
+    }
+
+    private void swap(int slot1, int slot2) {
+        double score = scores[slot1];
+        scores[slot1] = scores[slot2];
+        scores[slot2] = score;
+        int id = ids[slot1];
+        ids[slot1] = ids[slot2];
+        ids[slot2] = id;
+        int offset = offsets[slot1];
+        offsets[slot1] = offsets[slot2];
+        offsets[slot2] = offset;
+        double confidence = confidences[slot1];
+        confidences[slot1] = confidences[slot2];
+        confidences[slot2] = confidence;
+    }
+}
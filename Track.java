@@ -0,0 +1,59 @@
+package audiomatching;
+
+// The fingerprint of a single audio file along with what is known about the
+// file. Tracks are never modified once created so they can be shared
+// freely between threads
+public class Track {
+
+    // Canonical path of the audio file
+    private final String name;
+    // Hash code of every token of the file, in order, or the landmarks of
+    // the file as (hash, anchor frame) pairs
+    private final int[] hashes;
+    // Format, length and digest of the file
+    private final TrackMetadata metadata;
+    // Score of the track matched against itself, the highest score any
+    // track can reach against it. NaN until the track has been scored
+    private final double baseScore;
+
+    Track(String name, int[] hashes, TrackMetadata metadata) {
+        this(name, hashes, metadata, Double.NaN);
+    }
+
+    Track(String name, int[] hashes, TrackMetadata metadata
+            , double baseScore) {
+        this.name = name;
+        this.hashes = hashes;
+        this.metadata = metadata;
+        this.baseScore = baseScore;
+    }
+
+    // Given: the score of the track matched against itself
+    // Returns: a copy of this track holding that base score
+    public Track withBaseScore(double baseScore) {
+        return new Track(name, hashes, metadata, baseScore);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Returns: the hash codes of the file. The array is shared and must not
+    //          be modified
+    public int[] getHashes() {
+        return hashes;
+    }
+
+    public TrackMetadata getMetadata() {
+        return metadata;
+    }
+
+    // Returns: the duration of the decoded audio in seconds
+    public double getDuration() {
+        return metadata.getDuration();
+    }
+
+    public double getBaseScore() {
+        return baseScore;
+    }
+}
@@ -0,0 +1,46 @@
+package audiomatching;
+
+// An index over the fingerprints of a set of tracks that finds the tracks a
+// query can match without comparing the query with every one of them.
+// Track ids are the positions of the tracks in the list the index was
+// built from
+public interface TrackIndex {
+
+    // Returns: the number of indexed tracks
+    int size();
+
+    // Given: a track id
+    // Returns: the canonical path of that track
+    String getName(int id);
+
+    // Given: a track id
+    // Returns: the base score of that track
+    double getBaseScore(int id);
+
+    // Given: a track id
+    // Returns: that track, with a copy of its fingerprint
+    Track getTrack(int id);
+
+    // Given: the canonical path of a file
+    // Returns: the id of its track, or -1 if it is not indexed
+    int find(String name);
+
+    // Given: a duration in seconds
+    // Returns: the ids of the tracks of exactly that duration, in ascending
+    //          order. Without partial matching a query can only match those
+    int[] withDuration(double duration);
+
+    // Given: the fingerprint and base score of a query track and the
+    //        accuracy of the matching function
+    // Returns: the ids of the tracks, in ascending order, that can match the
+    //          query as it is, without shifting it. Tracks that are not
+    //          returned can't pass the matching function
+    int[] candidates(int[] query, double baseScore, double accuracy);
+
+    // Given: the fingerprint and base score of a query track and the
+    //        accuracy of the matching function
+    // Returns: pairs of (track id, delay), in ascending order of id, for the
+    //          tracks that can match the query once it is shifted by the
+    //          delay, in chunks or, for landmarks, frames
+    int[] search(int[] query, double baseScore, double accuracy);
+}
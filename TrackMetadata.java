@@ -0,0 +1,102 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+// What is known about an audio file apart from its fingerprint: the format
+// and length of its decoded audio and a cheap digest of its contents. It is
+// filled once when the file is fingerprinted and kept with the fingerprint,
+// in memory and in the database, so matching never goes back to the file.
+// Metadata is never modified once created
+public class TrackMetadata {
+
+    // Number of bytes read at each end of a file by digest()
+    private static final int DIGEST_SPAN = 64 * 1024;
+
+    // Duration of the decoded audio in seconds
+    private final double duration;
+    // Number of frames per second
+    private final float sampleRate;
+    // Number of interleaved channels
+    private final int channels;
+    // Number of frames decoded
+    private final long frames;
+    // Digest of the size and of both ends of the file, see digest()
+    private final long digest;
+
+    TrackMetadata(double duration, float sampleRate, int channels
+            , long frames, long digest) {
+        this.duration = duration;
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.frames = frames;
+        this.digest = digest;
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    // Given: a file
+    // Returns: a 64 bit FNV-1a hash of the size of the file and of its first
+    //          and last DIGEST_SPAN bytes
+    // Only reads 128 KB whatever the size of the file, so it is cheap enough
+    // to compute for every file. Files with different digests are different,
+    // files with equal digests are very probably the same but must be
+    // compared in full to be sure, see FingerprintDatabase.digest()
+    static long digest(File file) throws IOException {
+        long hash = 0xcbf29ce484222325L;
+        try (FileChannel channel = FileChannel.open(file.toPath()
+                , StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (int shift = 0; shift < 64; shift += 8) {
+                hash = (hash ^ ((size >>> shift) & 0xFF)) * 0x100000001b3L;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(DIGEST_SPAN);
+            hash = update(hash, channel, 0, buffer);
+            if (size > DIGEST_SPAN) {
+                hash = update(hash, channel
+                        , Math.max(DIGEST_SPAN, size - DIGEST_SPAN), buffer);
+            }
+        }
+        return hash;
+    }
+
+    // Given: a hash, a channel, a position in it and a buffer
+    // Returns: the hash updated with the bytes read from that position into
+    //          the buffer
+    private static long update(long hash, FileChannel channel, long position
+            , ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position + buffer.position());
+            if (count == -1) {
+                break;
+            }
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            hash = (hash ^ (buffer.get() & 0xFF)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,203 @@
+package audiomatching;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+// The tracks of an index held off the heap, so a catalog of millions of
+// tracks costs the garbage collector a handful of buffers instead of
+// millions of arrays and strings. It holds
+//   records:  a fixed size record per track, by track id, with where its
+//             hashes and name are, its base score and its metadata
+//   hashes:   the hashes of all the tracks, one track after the other
+//   names:    the UTF-8 canonical paths of all the tracks
+// and PostingTables from durations and names to track ids. Track ids are
+// the positions of the tracks in the list the table was built from. The
+// table is never modified once built and can be shared between threads
+final class TrackTable {
+
+    // Bytes of a record: first hash (long), number of hashes (int), length
+    // of the name (int), first byte of the name (long), base score, duration
+    // (doubles), frames, digest (longs), sample rate (float), channels (int)
+    private static final int RECORD = 64;
+
+    private static final int[] NONE = new int[0];
+
+    // Number of tracks
+    private final int size;
+    private final OffHeapArena records;
+    private final OffHeapArena hashes;
+    private final OffHeapArena names;
+    // Track ids by the bits of their duration, and by the hash of their
+    // name, see nameKey()
+    private final PostingTable durations;
+    private final PostingTable byName;
+
+    // Given: the tracks to hold
+    TrackTable(List<Track> tracks) {
+        size = tracks.size();
+        byte[][] encoded = new byte[size][];
+        long hashCount = 0;
+        long nameBytes = 0;
+        for (int id = 0; id < size; id++) {
+            encoded[id] = tracks.get(id).getName()
+                    .getBytes(StandardCharsets.UTF_8);
+            hashCount += tracks.get(id).getHashes().length;
+            nameBytes += encoded[id].length;
+        }
+
+        records = new OffHeapArena((long) size * RECORD);
+        hashes = new OffHeapArena(hashCount * 4);
+        names = new OffHeapArena(nameBytes);
+        durations = new PostingTable(1);
+        byName = new PostingTable(1);
+        long hash = 0;
+        long name = 0;
+        for (int id = 0; id < size; id++) {
+            Track track = tracks.get(id);
+            TrackMetadata metadata = track.getMetadata();
+            int[] values = track.getHashes();
+            long record = (long) id * RECORD;
+            records.putLong(record, hash);
+            records.putInt(record + 8, values.length);
+            records.putInt(record + 12, encoded[id].length);
+            records.putLong(record + 16, name);
+            records.putDouble(record + 24, track.getBaseScore());
+            records.putDouble(record + 32, metadata.getDuration());
+            records.putLong(record + 40, metadata.getFrames());
+            records.putLong(record + 48, metadata.getDigest());
+            records.putFloat(record + 56, metadata.getSampleRate());
+            records.putInt(record + 60, metadata.getChannels());
+            for (int value : values) {
+                hashes.putInt(4 * hash++, value);
+            }
+            names.put(name, encoded[id]);
+            name += encoded[id].length;
+
+            durations.count(durationKey(metadata.getDuration()));
+            byName.count(nameKey(track.getName()));
+        }
+
+        // Ids are added in ascending order, so every list is sorted
+        durations.allocate();
+        byName.allocate();
+        for (int id = 0; id < size; id++) {
+            Track track = tracks.get(id);
+            durations.set(durations.add(durationKey(track.getDuration())), 0
+                    , id);
+            byName.set(byName.add(nameKey(track.getName())), 0, id);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    String getName(int id) {
+        long record = (long) id * RECORD;
+        byte[] bytes = new byte[records.getInt(record + 12)];
+        names.get(records.getLong(record + 16), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    double getBaseScore(int id) {
+        return records.getDouble((long) id * RECORD + 24);
+    }
+
+    // Returns: the number of hashes of a track
+    int getHashCount(int id) {
+        return records.getInt((long) id * RECORD + 8);
+    }
+
+    // Given: a track id and the position of one of its hashes
+    // Returns: that hash
+    int getHash(int id, int position) {
+        return hashes.getInt(4 * (records.getLong((long) id * RECORD)
+                + position));
+    }
+
+    // Returns: a copy of the hashes of a track
+    int[] getHashes(int id) {
+        long first = records.getLong((long) id * RECORD);
+        int[] values = new int[getHashCount(id)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = hashes.getInt(4 * (first + i));
+        }
+        return values;
+    }
+
+    // Returns: the track of an id, with a copy of its hashes
+    Track getTrack(int id) {
+        long record = (long) id * RECORD;
+        TrackMetadata metadata = new TrackMetadata(
+                records.getDouble(record + 32)
+                , records.getFloat(record + 56), records.getInt(record + 60)
+                , records.getLong(record + 40), records.getLong(record + 48));
+        return new Track(getName(id), getHashes(id), metadata
+                , getBaseScore(id));
+    }
+
+    // Given: a duration in seconds
+    // Returns: the ids of the tracks of exactly that duration, in ascending
+    //          order
+    int[] withDuration(double duration) {
+        long slot = durations.find(durationKey(duration));
+        if (slot == -1) {
+            return NONE;
+        }
+        int[] ids = new int[(int) (durations.end(slot)
+                - durations.start(slot))];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = durations.get(durations.start(slot) + i, 0);
+        }
+        return ids;
+    }
+
+    // Given: the canonical path of a file
+    // Returns: the id of its track, or -1 if the table doesn't hold it
+    int find(String name) {
+        long slot = byName.find(nameKey(name));
+        if (slot != -1) {
+            for (long p = byName.start(slot); p < byName.end(slot); p++) {
+                int id = byName.get(p, 0);
+                if (getName(id).equals(name)) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Given: two arrays of track ids in ascending order
+    // Returns: the ids found in both, in ascending order
+    static int[] intersect(int[] ids, int[] others) {
+        int[] result = new int[Math.min(ids.length, others.length)];
+        int size = 0;
+        for (int i = 0, j = 0; i < ids.length && j < others.length;) {
+            if (ids[i] < others[j]) {
+                i++;
+            } else if (ids[i] > others[j]) {
+                j++;
+            } else {
+                result[size++] = ids[i];
+                i++;
+                j++;
+            }
+        }
+        return size == result.length ? result : Arrays.copyOf(result, size);
+    }
+
+    // Returns: the key of a duration, its bits with 0.0 and -0.0 merged
+    private static long durationKey(double duration) {
+        return Double.doubleToLongBits(duration + 0.0);
+    }
+
+    // Returns: the key of a name, a 64 bit FNV-1a hash of its characters
+    private static long nameKey(String name) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < name.length(); i++) {
+            hash = (hash ^ name.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
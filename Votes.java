@@ -0,0 +1,144 @@
+package audiomatching;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// The votes of the hashes of a query for the tracks of an index and the
+// delays at which they match, along with what every TrackIndex does with
+// them. An index looks up the hashes of the query and adds a vote for
+// every (track id, delay) it finds; the most voted delay of a track is its
+// best alignment, and the track can only match if that many votes reach
+// ACCURACY times the smaller of the two base scores, or a fixed number of
+// votes when that is fewer
+final class Votes {
+
+    // Histogram of the delays of every track, keyed by track id in the high
+    // half and delay in the low half
+    private final HashMap<Long, int[]> histogram;
+
+    Votes() {
+        histogram = new HashMap();
+    }
+
+    // Given: a track id and the delay of the track against the query
+    // Counts one more vote for that delay of that track
+    void add(int id, int delay) {
+        long key = ((long) id << 32) | (delay & 0xFFFFFFFFL);
+        int[] count = histogram.get(key);
+        if (count == null) {
+            count = new int[1];
+            histogram.put(key, count);
+        }
+        count[0]++;
+    }
+
+    // Given: the tracks of the index, the ids of its tracks with a base
+    //        score of zero in ascending order, the base score of the query,
+    //        the accuracy of the matching function and the most votes a
+    //        track can be required to have
+    // Returns: pairs of (track id, delay), in ascending order of id, for
+    //          the tracks whose most voted delay has enough votes, and for
+    //          the tracks with a base score of zero, which match any query
+    //          at a delay of zero. Ties go to the delay closest to zero,
+    //          and then to the negative one
+    int[] alignments(TrackTable tracks, int[] emptyTracks, double baseScore
+            , double accuracy, double most) {
+        // Most voted delay of every track
+        HashMap<Integer, int[]> best = new HashMap();
+        for (Long key : histogram.keySet()) {
+            int id = (int) (key >>> 32);
+            int delay = (int) (long) key;
+            int votes = histogram.get(key)[0];
+            int[] current = best.get(id);
+            if (current == null) {
+                best.put(id, new int[] {votes, delay});
+            } else if (votes > current[0] || votes == current[0]
+                    && (Math.abs(delay) < Math.abs(current[1])
+                            || Math.abs(delay) == Math.abs(current[1])
+                            && delay < current[1])) {
+                current[0] = votes;
+                current[1] = delay;
+            }
+        }
+
+        int[] ids = new int[best.size() + emptyTracks.length];
+        int size = 0;
+        for (Integer id : best.keySet()) {
+            double base = Math.min(baseScore, tracks.getBaseScore(id));
+            if (base > 0
+                    && best.get(id)[0] >= Math.min(base * accuracy, most)) {
+                ids[size++] = id;
+            }
+        }
+        for (int id : emptyTracks) {
+            ids[size++] = id;
+        }
+        ids = Arrays.copyOf(ids, size);
+        Arrays.sort(ids);
+
+        int[] result = new int[2 * ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            int[] alignment = best.get(ids[i]);
+            result[2 * i] = ids[i];
+            result[2 * i + 1] = alignment == null ? 0 : alignment[1];
+        }
+        return result;
+    }
+
+    // Given: pairs of (track id, delay) as returned by alignments()
+    // Returns: the track ids alone
+    static int[] ids(int[] alignments) {
+        int[] ids = new int[alignments.length / 2];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = alignments[2 * i];
+        }
+        return ids;
+    }
+
+    // Given: the tracks of an index
+    // Returns: the ids of the tracks with a base score of zero, in
+    //          ascending order
+    static int[] emptyTracks(List<Track> tracks) {
+        int[] empty = new int[tracks.size()];
+        int size = 0;
+        for (int id = 0; id < tracks.size(); id++) {
+            if (tracks.get(id).getBaseScore() <= 0) {
+                empty[size++] = id;
+            }
+        }
+        return Arrays.copyOf(empty, size);
+    }
+
+    // Given: the number of tracks of an index
+    // Returns: the ids of all of them, for a query with a base score of
+    //          zero, which every track reaches
+    static int[] allTracks(int size) {
+        int[] all = new int[size];
+        for (int id = 0; id < size; id++) {
+            all[id] = id;
+        }
+        return all;
+    }
+
+    // Given: the number of tracks of an index
+    // Returns: pairs of (track id, 0) for all of them, see allTracks()
+    static int[] allAlignments(int size) {
+        int[] all = new int[2 * size];
+        for (int id = 0; id < size; id++) {
+            all[2 * id] = id;
+        }
+        return all;
+    }
+
+    // Given: a value
+    // Returns: a well mixed hash of the value, see MurmurHash3
+    static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,21 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+
+// Pass-through decoder for uncompressed PCM WAVE files. The file is mapped
+// and its samples are decoded in place, no data is copied or converted
+public class WaveDecoder implements AudioDecoder {
+
+    @Override
+    public PcmReader open(File file, int tokenSize) throws IOException {
+        WaveFile wave;
+        try {
+            wave = WaveFile.open(file);
+        } catch (IOException ex) {
+            // Not a WAVE file we can read directly
+            return null;
+        }
+        return new PcmReader(wave.samples(), wave.getFormat(), tokenSize);
+    }
+}
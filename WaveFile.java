@@ -0,0 +1,140 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.sampled.AudioFormat;
+
+// A WAVE (RIFF) file mapped into memory. The header is parsed once when the
+// file is opened and the sample region is exposed as a read-only view of
+// the mapping, so the samples are decoded straight from the page cache
+// without going through AudioInputStream or intermediate byte[] copies.
+// Files larger than 2 GB are truncated to the first 2 GB of the mapping
+public class WaveFile {
+
+    // Format codes used in the fmt chunk
+    private static final int FORMAT_PCM = 1;
+    private static final int FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // Number of samples per second of a single channel
+    private final int sampleRate;
+    // Number of interleaved channels
+    private final int channels;
+    // Number of bits used by a single sample of a single channel
+    private final int bitsPerSample;
+    // Number of complete frames in the sample region
+    private final long frameCount;
+    // View of the sample region of the mapped file
+    private final ByteBuffer samples;
+
+    private WaveFile(int sampleRate, int channels, int bitsPerSample
+            , ByteBuffer samples) {
+        this.sampleRate = sampleRate;
+        this.channels = channels;
+        this.bitsPerSample = bitsPerSample;
+        this.samples = samples;
+        this.frameCount = samples.remaining()
+                / (channels * (bitsPerSample / 8));
+    }
+
+    // Given: a file
+    // Returns: the mapped WAVE file
+    // Throws an IOException if the file can't be read or is not an
+    // uncompressed PCM WAVE file
+    public static WaveFile open(File file) throws IOException {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file.toPath()
+                , StandardOpenOption.READ)) {
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (map.remaining() < 12 || map.getInt(0) != 0x46464952
+                || map.getInt(8) != 0x45564157) {
+            throw new IOException(file + " is not a RIFF/WAVE file");
+        }
+
+        int format = -1, channels = 0, sampleRate = 0, bits = 0;
+        int position = 12;
+        // Walk the chunks until the data chunk is found
+        while (position + 8 <= map.limit()) {
+            int id = map.getInt(position);
+            long size = map.getInt(position + 4) & 0xFFFFFFFFL;
+            int body = position + 8;
+
+            if (id == 0x20746d66) {
+                // "fmt " chunk
+                if (size < 16 || body + 16 > map.limit()) {
+                    throw new IOException(file + " has a broken fmt chunk");
+                }
+                format = map.getShort(body) & 0xFFFF;
+                channels = map.getShort(body + 2) & 0xFFFF;
+                sampleRate = map.getInt(body + 4);
+                bits = map.getShort(body + 14) & 0xFFFF;
+                if (format == FORMAT_EXTENSIBLE && size >= 26) {
+                    // The real format code starts the sub format GUID
+                    format = map.getShort(body + 24) & 0xFFFF;
+                }
+            } else if (id == 0x61746164) {
+                // "data" chunk. Streamed files may leave the size unset so
+                // it is clamped to what is actually in the file
+                if (format != FORMAT_PCM || channels == 0 || bits == 0
+                        || bits % 8 != 0) {
+                    throw new IOException(file
+                            + " is not an uncompressed PCM WAVE file");
+                }
+                int end = (int) Math.min(map.limit(), body + size);
+                ByteBuffer data = map.duplicate();
+                data.position(body).limit(end);
+                data = data.slice().asReadOnlyBuffer();
+                data.order(ByteOrder.LITTLE_ENDIAN);
+                return new WaveFile(sampleRate, channels, bits, data);
+            }
+            // Chunks are padded to an even number of bytes
+            position = (int) Math.min(map.limit(), body + size + (size & 1));
+        }
+        throw new IOException(file + " has no data chunk");
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    // Returns: the duration of the file in seconds
+    public double getDuration() {
+        return (frameCount + 0.0) / sampleRate;
+    }
+
+    // Returns: the format of the samples. 8 bit WAVE samples are unsigned,
+    //          all wider samples are signed
+    public AudioFormat getFormat() {
+        return new AudioFormat(
+                bitsPerSample == 8 ? AudioFormat.Encoding.PCM_UNSIGNED
+                        : AudioFormat.Encoding.PCM_SIGNED
+                , sampleRate, bitsPerSample, channels
+                , channels * (bitsPerSample / 8), sampleRate, false);
+    }
+
+    // Returns: a new read-only view of the sample region, positioned at the
+    //          first frame. No sample data is copied
+    public ByteBuffer samples() {
+        return samples.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
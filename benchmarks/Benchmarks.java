@@ -0,0 +1,41 @@
+package audiomatching;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs the JMH benchmarks of the hot paths with the GC profiler attached,
+// so the allocation rate (gc.alloc.rate.norm, bytes per operation) is
+// reported next to the time of every benchmark.
+//
+// The benchmarks live in the same package as the code they measure and are
+// compiled together with it by benchmarks/pom.xml, into a jar that runs
+// this class:
+//   cd benchmarks && mvn -B package
+//   java -jar target/benchmarks.jar [regexp]
+// The optional argument selects benchmarks by name, as with the JMH command
+// line, for example "FFTBenchmark" or "MatchBenchmark.matchHelper".
+// To measure the Vector API kernels, add --add-modules jdk.incubator.vector
+// to the java command; the forked JVM gets the same flag through JMH's
+// jvmArgsAppend, see below
+public class Benchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        System.out.println("Kernels: " + Kernels.INSTANCE.name());
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "audiomatching\\..*")
+                .exclude("audiomatching\\.Benchmarks")
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .jvmArgsAppend(Kernels.INSTANCE instanceof Kernels.Scalar
+                        ? new String[0]
+                        : new String[] {"--add-modules"
+                                , "jdk.incubator.vector"})
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build();
+        new Runner(options).run();
+    }
+}
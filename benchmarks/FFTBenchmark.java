@@ -0,0 +1,75 @@
+package audiomatching;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Cost of a single transform. The complex transform works in place, so the
+// input is copied back before every call; the copy is part of the score.
+// realForwardBlock transforms BLOCK inputs in one call, its score is for the
+// whole block
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FFTBenchmark {
+
+    // Number of inputs in a block
+    static final int BLOCK = 8;
+
+    @Param({"256", "512", "1024", "2048", "4096", "8192"})
+    int size;
+
+    FFT fft;
+    double[] input;
+    double[] re;
+    double[] im;
+    double[] magnitude;
+    double[] block;
+    double[] magnitudes;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        fft = FFT.plan(size);
+        input = new double[size];
+        re = new double[size];
+        im = new double[size];
+        magnitude = new double[size / 2 + 1];
+        for (int i = 0; i < size; i++) {
+            input[i] = random.nextGaussian();
+        }
+        block = new double[BLOCK * size];
+        magnitudes = new double[BLOCK * (size / 2 + 1)];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = random.nextGaussian();
+        }
+    }
+
+    @Benchmark
+    public double[] fft() {
+        System.arraycopy(input, 0, re, 0, size);
+        Arrays.fill(im, 0);
+        fft.fft(re, im);
+        return re;
+    }
+
+    @Benchmark
+    public double[] realForward() {
+        fft.realForward(input, magnitude);
+        return magnitude;
+    }
+
+    @Benchmark
+    public double[] realForwardBlock() {
+        fft.realForward(block, BLOCK, magnitudes);
+        return magnitudes;
+    }
+}
@@ -0,0 +1,100 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// The stages of fingerprinting a single file: decoding its samples,
+// converting a token to the frequency domain and hashing a spectrum, and
+// the whole streaming pipeline
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FingerprintBenchmark {
+
+    // Length of the synthetic track in seconds
+    @Param({"10", "60"})
+    double seconds;
+
+    File directory;
+    File file;
+    WaveFile wave;
+    Fingerprinter fingerprinter;
+    FFT fft;
+    double[] token;
+    double[] magnitude;
+    int[] consideredPoints;
+    double[] maxScores;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("fingerprint-bench").toFile();
+        file = new File(directory, "track.wav");
+        SyntheticAudio.write(file, seconds, 7);
+        wave = WaveFile.open(file);
+        fingerprinter = new Fingerprinter(new WaveDecoder());
+        fft = FFT.plan(1024);
+        token = new double[1024];
+        magnitude = new double[513];
+        consideredPoints = new int[4];
+        maxScores = new double[4];
+
+        // A token and spectrum from the middle of the track
+        PcmReader reader = reader();
+        for (int i = 0; i < 100; i++) {
+            reader.read(token);
+        }
+        fft.realForward(token, magnitude);
+    }
+
+    @TearDown
+    public void tearDown() {
+        SyntheticAudio.delete(directory);
+    }
+
+    // Returns: a new reader over the mapped samples of the track
+    private PcmReader reader() throws IOException {
+        return new PcmReader(wave.samples(), wave.getFormat(), 1024);
+    }
+
+    // Opening (mapping and parsing) the file and decoding every token
+    @Benchmark
+    public double readAudio() throws IOException {
+        PcmReader reader = fingerprinter.readAudio(file);
+        double sum = 0;
+        while (reader.read(token) > 0) {
+            sum += token[0];
+        }
+        reader.close();
+        return sum;
+    }
+
+    // One token
+    @Benchmark
+    public double[] convertToFrequency() {
+        fingerprinter.convertToFrequency(fft, token, magnitude);
+        return magnitude;
+    }
+
+    // One spectrum
+    @Benchmark
+    public int getHash() {
+        return fingerprinter.getHash(magnitude, consideredPoints, maxScores);
+    }
+
+    // All of the above for one file
+    @Benchmark
+    public Track fingerprint() throws IOException {
+        return fingerprinter.fingerprint(file);
+    }
+}
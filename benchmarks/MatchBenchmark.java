@@ -0,0 +1,150 @@
+package audiomatching;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// Matching, both the scoring of a single pair of fingerprints and complete
+// command line runs over small synthetic corpora
+public class MatchBenchmark {
+
+    // Two random fingerprints where roughly half the chunks match
+    @State(Scope.Thread)
+    public static class Fingerprints {
+
+        // Number of chunks in each fingerprint. 1000 chunks is about
+        // 23 seconds of audio
+        @Param({"100", "1000", "10000", "100000"})
+        int length;
+
+        int[] hash1;
+        int[] hash2;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(11);
+            hash1 = new int[length];
+            hash2 = new int[length];
+            for (int i = 0; i < length; i++) {
+                hash1[i] = random.nextInt();
+                hash2[i] = random.nextBoolean() ? hash1[i] + 1000
+                        : random.nextInt();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public double matchHelper(Fingerprints fingerprints) {
+        return AudioMatchingUtilities.matchHelper(fingerprints.hash1
+                , fingerprints.hash2, 4, 5);
+    }
+
+    // The usual ACCURACY of 70% can't be reached by these fingerprints, so
+    // the scan stops once 30% of the chunks have failed to match
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ChunkScore matchHelperBounded(Fingerprints fingerprints) {
+        return AudioMatchingUtilities.matchHelper(fingerprints.hash1
+                , fingerprints.hash2, 0, 4, 5, 0.7 * fingerprints.length
+                , false);
+    }
+
+    // Half the chunks match, so deciding on a 40% threshold stops once
+    // about 80% of the chunks have been examined
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ChunkScore matchHelperDecideOnly(Fingerprints fingerprints) {
+        return AudioMatchingUtilities.matchHelper(fingerprints.hash1
+                , fingerprints.hash2, 0, 4, 5, 0.4 * fingerprints.length
+                , true);
+    }
+
+    // Corpora for the end to end runs. Every run fingerprints its inputs
+    // and matches them exactly like the command line does, on utilities of
+    // its own so nothing is cached between runs
+    @State(Scope.Benchmark)
+    public static class Corpus {
+
+        @Param({"-f -f", "-d -f", "-d -d"})
+        String mode;
+
+        File root;
+        String[] args;
+        // The MATCH lines are not part of what is measured
+        PrintStream out;
+        AudioMatchingUtilities utils;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            root = Files.createTempDirectory("match-bench").toFile();
+            File references = SyntheticAudio.corpus(
+                    new File(root, "references"), 20, 5, 100);
+            File queries = SyntheticAudio.corpus(
+                    new File(root, "queries"), 10, 5, 200);
+            // Some queries are quieter copies of references so there are
+            // matches. They are not byte for byte copies, which would be
+            // fingerprinted once and shared, see AudioMatchingUtilities
+            for (int i = 0; i < 3; i++) {
+                SyntheticAudio.write(new File(queries, "copy" + i + ".wav")
+                        , 5, 100 + i, 0.8);
+            }
+            String file1 = new File(references, "track0.wav").getPath();
+            String file2 = new File(queries, "copy0.wav").getPath();
+
+            switch (mode) {
+                case "-f -f":
+                    args = new String[] {"-f", file1, "-f", file2};
+                    break;
+                case "-d -f":
+                    args = new String[] {"-d", references.getPath()
+                            , "-f", file2};
+                    break;
+                default:
+                    args = new String[] {"-d", queries.getPath()
+                            , "-d", references.getPath()};
+                    break;
+            }
+            out = new PrintStream(OutputStream.nullOutputStream());
+        }
+
+        @Setup(Level.Invocation)
+        public void newUtilities() {
+            utils = new AudioMatchingUtilities();
+        }
+
+        @TearDown(Level.Invocation)
+        public void closeUtilities() {
+            utils.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            SyntheticAudio.delete(root);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void match(Corpus corpus) throws IOException {
+        AudioMatching.run(corpus.utils, corpus.args, corpus.out);
+    }
+}
@@ -0,0 +1,79 @@
+package audiomatching;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+// Writes the WAVE files the benchmarks run on. The content is a mix of two
+// tones and some noise, seeded so every run sees the same data
+final class SyntheticAudio {
+
+    private SyntheticAudio() {
+    }
+
+    // Given: a target file, the length in seconds and a seed
+    // Writes a 44.1kHz 16 bit stereo WAVE file
+    static void write(File file, double seconds, long seed)
+            throws IOException {
+        write(file, seconds, seed, 1);
+    }
+
+    // Given: a target file, the length in seconds, a seed and a gain
+    // Same as write() above with every sample scaled by the gain, so files
+    // of the same seed and different gains hold the same recording in
+    // different bytes
+    static void write(File file, double seconds, long seed, double gain)
+            throws IOException {
+        Random random = new Random(seed);
+        int rate = 44100;
+        int frames = (int) (seconds * rate);
+        double tone1 = 200 + random.nextInt(800);
+        double tone2 = 1000 + random.nextInt(4000);
+        byte[] data = new byte[frames * 4];
+
+        for (int i = 0; i < frames; i++) {
+            double value = gain * (0.5 * Math.sin(2 * Math.PI * tone1 * i
+                    / rate) + 0.3 * Math.sin(2 * Math.PI * tone2 * i / rate)
+                    + 0.05 * random.nextGaussian());
+            short sample = (short) (Math.max(-1, Math.min(1, value))
+                    * Short.MAX_VALUE);
+            for (int c = 0; c < 2; c++) {
+                data[4 * i + 2 * c] = (byte) sample;
+                data[4 * i + 2 * c + 1] = (byte) (sample >> 8);
+            }
+        }
+
+        AudioFormat format = new AudioFormat(rate, 16, 2, true, false);
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data)
+                , format, frames), AudioFileFormat.Type.WAVE, file);
+    }
+
+    // Given: a directory, a number of files, their length and a seed
+    // Returns: the directory, filled with that many WAVE files
+    static File corpus(File directory, int files, double seconds, long seed)
+            throws IOException {
+        directory.mkdirs();
+        for (int i = 0; i < files; i++) {
+            write(new File(directory, "track" + i + ".wav"), seconds
+                    , seed + i);
+        }
+        return directory;
+    }
+
+    // Given: a file or directory
+    // Deletes it along with everything inside it
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
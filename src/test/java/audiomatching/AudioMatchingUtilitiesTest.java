@@ -0,0 +1,280 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Runs the utilities on small catalogs of seeded tunes, see TestAudio, and
+// checks what they keep between files, requests and runs
+class AudioMatchingUtilitiesTest {
+
+    @TempDir
+    Path directory;
+
+    private AudioMatchingUtilities utils;
+
+    @BeforeEach
+    void createUtilities() {
+        utils = new AudioMatchingUtilities(2);
+    }
+
+    @AfterEach
+    void closeUtilities() {
+        utils.close();
+    }
+
+    @Test
+    void requestsOnlyReadTheDatabase() throws Exception {
+        File catalog = catalog("catalog", 2, 3);
+        File query = TestAudio.write(file("query.wav")
+                , TestAudio.tune(10, 3));
+        File db = file("fingerprints.db");
+        utils.openDatabase(db.getPath());
+        utils.loadResident(catalog.getPath());
+
+        AudioMatchingUtilities request = utils.forRequest();
+        request.initAudio(query.getPath());
+        request.initAudio(new File(catalog, "track0.wav").getPath());
+        utils.saveDatabase();
+
+        FingerprintDatabase saved = FingerprintDatabase.open(db, false);
+        assertNotNull(saved.lookup(new File(catalog, "track0.wav")));
+        assertNotNull(saved.lookup(new File(catalog, "track1.wav")));
+        assertNull(saved.lookup(query));
+    }
+
+    @Test
+    void partialMatchesLeadingSilenceOfAnyLength() throws Exception {
+        double[] tune = TestAudio.tune(1, 6);
+        String original = TestAudio.write(file("original.wav"), tune)
+                .getCanonicalPath();
+        utils.setPartial(true);
+        utils.initAudio(original);
+        // 5, 10 and 100 ms at 44.1kHz, and shifts that are no multiple of
+        // the phases either
+        for (int silence : new int[] {220, 300, 441, 4410, 1000, 1023}) {
+            String delayed = TestAudio.write(file("delayed" + silence
+                    + ".wav"), TestAudio.delayed(tune, silence))
+                    .getCanonicalPath();
+            utils.initAudio(delayed);
+            assertNotNull(utils.compare(delayed, original), "" + silence);
+            assertNotNull(utils.compare(original, delayed), "" + silence);
+        }
+    }
+
+    @Test
+    void partialMatchesExcerptsAgainstAnIndex() throws Exception {
+        File catalog = catalog("catalog", 3, 6);
+        File queries = file("queries");
+        queries.mkdirs();
+        // Cut 20000 samples in and delayed by 1000, the excerpt starts 19000
+        // samples or 18.55 chunks into the track
+        double[] tune = TestAudio.tune(1, 6);
+        String excerpt = TestAudio.write(new File(queries, "excerpt.wav")
+                , TestAudio.delayed(TestAudio.excerpt(tune, 20000
+                , tune.length), 1000)).getCanonicalPath();
+        String other = TestAudio.write(new File(queries, "other.wav")
+                , TestAudio.tune(20, 4)).getCanonicalPath();
+        utils.setPartial(true);
+        utils.initDirectory(queries.getPath());
+        utils.initDirectory(catalog.getPath());
+        TrackIndex index = utils.indexDirectory(catalog.getPath());
+
+        List<MatchResult> found = utils.query(excerpt, index, 3);
+        assertEquals(1, found.size());
+        assertEquals(new File(catalog, "track1.wav").getCanonicalPath()
+                , found.get(0).getName());
+        assertEquals(18.55, found.get(0).getOffset(), 1);
+        assertTrue(utils.query(other, index, 3).isEmpty());
+    }
+
+    @Test
+    void withoutPartialShiftedFilesDontMatch() throws Exception {
+        double[] tune = TestAudio.tune(1, 3);
+        String original = TestAudio.write(file("original.wav"), tune)
+                .getCanonicalPath();
+        String delayed = TestAudio.write(file("delayed.wav")
+                , TestAudio.delayed(tune, 441)).getCanonicalPath();
+        utils.initAudio(original);
+        utils.initAudio(delayed);
+        assertNull(utils.compare(delayed, original));
+    }
+
+    @Test
+    void renamedFilesKeepTheirFingerprint() throws Exception {
+        File catalog = catalog("catalog", 3, 3);
+        utils.loadResident(catalog.getPath());
+        File before = new File(catalog, "track1.wav");
+        int[] hashes = resident(catalog, before).getHashes();
+        File after = new File(catalog, "renamed.wav");
+        Files.move(before.toPath(), after.toPath());
+
+        Metrics.setEnabled(true);
+        try {
+            long fingerprinted = Metrics.Counter.FILES.adder.sum();
+            assertTrue(utils.syncResident(catalog.getPath()));
+            assertEquals(fingerprinted, Metrics.Counter.FILES.adder.sum());
+        } finally {
+            Metrics.setEnabled(false);
+        }
+        assertArrayEquals(hashes, resident(catalog, after).getHashes());
+        assertEquals(-1, utils.indexDirectory(catalog.getPath())
+                .find(before.getCanonicalPath()));
+        assertFalse(utils.syncResident(catalog.getPath()));
+    }
+
+    @Test
+    void quickDigestTwinsAreFingerprintedAgain() throws Exception {
+        // Two tunes of the same length behind and before 1 s of silence,
+        // more than the bytes the quick digest reads at either end
+        File catalog = file("catalog");
+        catalog.mkdirs();
+        File first = TestAudio.write(new File(catalog, "first.wav")
+                , padded(1));
+        File second = TestAudio.write(file("second.wav"), padded(2));
+        assertEquals(TrackMetadata.digest(first)
+                , TrackMetadata.digest(second));
+        utils.loadResident(catalog.getPath());
+
+        // The first one is replaced by the second one under another name
+        File moved = new File(catalog, "second.wav");
+        first.delete();
+        Files.move(second.toPath(), moved.toPath());
+        assertTrue(utils.syncResident(catalog.getPath()));
+
+        Track expected = new Fingerprinter(new WaveDecoder())
+                .fingerprint(moved);
+        assertArrayEquals(expected.getHashes(), resident(catalog, moved)
+                .getHashes());
+    }
+
+    @Test
+    void identicalFilesAreFingerprintedOnce() throws Exception {
+        File catalog = file("catalog");
+        catalog.mkdirs();
+        double[] tune = TestAudio.tune(1, 3);
+        for (int i = 0; i < 3; i++) {
+            TestAudio.write(new File(catalog, "copy" + i + ".wav"), tune);
+        }
+        TestAudio.write(new File(catalog, "other.wav"), TestAudio.tune(2, 3));
+
+        long[] counted = counted(() -> utils.initDirectory(
+                catalog.getPath()));
+        assertEquals(2, counted[0]);
+        assertEquals(2, counted[1]);
+        String copy0 = new File(catalog, "copy0.wav").getCanonicalPath();
+        for (int i = 1; i < 3; i++) {
+            String copy = new File(catalog, "copy" + i + ".wav")
+                    .getCanonicalPath();
+            MatchResult result = utils.compare(copy, copy0);
+            assertNotNull(result);
+            assertEquals(1, result.getConfidence());
+        }
+    }
+
+    @Test
+    void databaseSharesFingerprintsWithCopies() throws Exception {
+        File db = file("fingerprints.db");
+        File original = TestAudio.write(file("original.wav")
+                , TestAudio.tune(1, 3));
+        utils.openDatabase(db.getPath());
+        utils.initAudio(original.getPath());
+        utils.saveDatabase();
+        utils.close();
+
+        File copy = file("copy.wav");
+        Files.copy(original.toPath(), copy.toPath());
+        utils = new AudioMatchingUtilities(2);
+        utils.openDatabase(db.getPath());
+        long[] counted = counted(() -> utils.initAudio(copy.getPath()));
+        assertEquals(0, counted[0]);
+        assertEquals(1, counted[1]);
+        utils.saveDatabase();
+        assertNotNull(FingerprintDatabase.open(db, false).lookup(copy));
+    }
+
+    @Test
+    void sameNamesInOtherDirectoriesKeepTheirOwnFingerprint()
+            throws Exception {
+        File first = file("first");
+        File second = file("second");
+        first.mkdirs();
+        second.mkdirs();
+        String song1 = TestAudio.write(new File(first, "song.wav")
+                , TestAudio.tune(1, 3)).getCanonicalPath();
+        String song2 = TestAudio.write(new File(second, "song.wav")
+                , TestAudio.tune(2, 3)).getCanonicalPath();
+        utils.initDirectory(first.getPath());
+        utils.initDirectory(second.getPath());
+        assertNull(utils.compare(song1, song2));
+        assertNull(utils.compare(song2, song1));
+    }
+
+    // Given: work to do
+    // Returns: the number of files fingerprinted by the work and the number
+    //          of files that shared the fingerprint of a copy
+    private static long[] counted(Work work) throws Exception {
+        Metrics.setEnabled(true);
+        try {
+            long files = Metrics.Counter.FILES.adder.sum();
+            long duplicates = Metrics.Counter.DUPLICATES.adder.sum();
+            work.run();
+            return new long[] {Metrics.Counter.FILES.adder.sum() - files
+                    , Metrics.Counter.DUPLICATES.adder.sum() - duplicates};
+        } finally {
+            Metrics.setEnabled(false);
+        }
+    }
+
+    private interface Work {
+        void run() throws Exception;
+    }
+
+    // Given: a resident directory and one of its files
+    // Returns: the track of the file in the snapshot of the directory
+    private Track resident(File catalog, File file) throws Exception {
+        TrackIndex index = utils.indexDirectory(catalog.getPath());
+        int id = index.find(file.getCanonicalPath());
+        assertTrue(id != -1, file.getName());
+        return index.getTrack(id);
+    }
+
+    // Given: a seed
+    // Returns: a 3 s tune of that seed with 1 s of silence on either side
+    private static double[] padded(long seed) {
+        double[] tune = TestAudio.delayed(TestAudio.tune(seed, 3)
+                , TestAudio.RATE);
+        return Arrays.copyOf(tune, tune.length + TestAudio.RATE);
+    }
+
+    // Given: the name of a directory, a number of tunes and their length in
+    //        seconds
+    // Returns: the directory, holding that many tunes named trackN.wav
+    private File catalog(String name, int tunes, double seconds)
+            throws Exception {
+        File catalog = file(name);
+        catalog.mkdirs();
+        for (int i = 0; i < tunes; i++) {
+            TestAudio.write(new File(catalog, "track" + i + ".wav")
+                    , TestAudio.tune(i, seconds));
+        }
+        return catalog;
+    }
+
+    private File file(String name) {
+        return directory.resolve(name).toFile();
+    }
+}
@@ -0,0 +1,163 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Saves fingerprints of small files, opens the database again and checks
+// what it gives back, for files that are unchanged, changed, renamed or
+// gone, and for database files that are outdated or broken
+class FingerprintDatabaseTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void savedTracksRoundTrip() throws Exception {
+        File db = file("fingerprints.db");
+        File first = contents("first.wav", "first");
+        File second = contents("second.wav", "second one");
+        FingerprintDatabase database = FingerprintDatabase.open(db, false);
+        database.put(first, track(first, new int[] {1, -2, 3}, 3));
+        database.put(second, track(second, new int[0], 0));
+        database.save();
+
+        FingerprintDatabase saved = FingerprintDatabase.open(db, false);
+        Track track = saved.lookup(first);
+        assertNotNull(track);
+        assertEquals(first.getCanonicalPath(), track.getName());
+        assertArrayEquals(new int[] {1, -2, 3}, track.getHashes());
+        assertEquals(3, track.getBaseScore());
+        assertEquals(2.5, track.getDuration());
+        assertEquals(7, track.getMetadata().getDigest());
+        assertArrayEquals(FingerprintDatabase.digest(first)
+                , saved.getDigest(first.getCanonicalPath()));
+        assertArrayEquals(new int[0], saved.lookup(second).getHashes());
+    }
+
+    @Test
+    void changedFilesAreFingerprintedAgain() throws Exception {
+        File db = file("fingerprints.db");
+        File changed = contents("changed.wav", "before");
+        File touched = contents("touched.wav", "same");
+        FingerprintDatabase database = FingerprintDatabase.open(db, false);
+        database.put(changed, track(changed, new int[] {1}, 1));
+        database.put(touched, track(touched, new int[] {2}, 1));
+        database.save();
+
+        // Same size, other contents, and the same contents at another time
+        Files.writeString(changed.toPath(), "after!");
+        changed.setLastModified(changed.lastModified() + 2000);
+        touched.setLastModified(touched.lastModified() + 2000);
+        FingerprintDatabase saved = FingerprintDatabase.open(db, false);
+        assertNull(saved.lookup(changed));
+        assertArrayEquals(new int[] {2}, saved.lookup(touched).getHashes());
+    }
+
+    @Test
+    void sameContentsShareTheFingerprint() throws Exception {
+        File db = file("fingerprints.db");
+        File original = contents("original.wav", "song");
+        File copy = contents("copy.wav", "song");
+        FingerprintDatabase database = FingerprintDatabase.open(db, false);
+        database.put(original, track(original, new int[] {4, 5}, 2));
+        database.save();
+
+        FingerprintDatabase saved = FingerprintDatabase.open(db, false);
+        assertNull(saved.lookup(copy));
+        Track shared = saved.lookup(copy.getCanonicalPath()
+                , FingerprintDatabase.digest(copy));
+        assertEquals(copy.getCanonicalPath(), shared.getName());
+        assertArrayEquals(new int[] {4, 5}, shared.getHashes());
+        assertNull(saved.lookup(copy.getCanonicalPath()
+                , FingerprintDatabase.digest(contents("other.wav", "x"))));
+    }
+
+    @Test
+    void filesThatAreGoneAreDropped() throws Exception {
+        File db = file("fingerprints.db");
+        File kept = contents("kept.wav", "kept");
+        File gone = contents("gone.wav", "gone");
+        FingerprintDatabase database = FingerprintDatabase.open(db, false);
+        database.put(kept, track(kept, new int[] {1}, 1));
+        database.put(gone, track(gone, new int[] {2}, 1));
+        gone.delete();
+        database.save();
+
+        FingerprintDatabase saved = FingerprintDatabase.open(db, false);
+        assertNotNull(saved.getDigest(kept.getCanonicalPath()));
+        assertNull(saved.getDigest(gone.getCanonicalPath()));
+    }
+
+    @Test
+    void otherDatabasesAreRebuilt() throws Exception {
+        File db = file("fingerprints.db");
+        File audio = contents("audio.wav", "audio");
+        FingerprintDatabase database = FingerprintDatabase.open(db, false);
+        database.put(audio, track(audio, new int[] {1}, 1));
+        database.save();
+        // Landmarks are not band hashes
+        assertNull(FingerprintDatabase.open(db, true).lookup(audio));
+
+        // The header of an older version
+        File old = file("old.db");
+        try (DataOutputStream out = new DataOutputStream(
+                new FileOutputStream(old))) {
+            out.writeInt(0x414D4650);
+            out.writeInt(1);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(24);
+        }
+        FingerprintDatabase rebuilt = FingerprintDatabase.open(old, false);
+        assertNull(rebuilt.lookup(audio));
+        rebuilt.put(audio, track(audio, new int[] {1}, 1));
+        rebuilt.save();
+        assertNotNull(FingerprintDatabase.open(old, false).lookup(audio));
+    }
+
+    @Test
+    void truncatedDatabasesAreReported() throws Exception {
+        File db = file("fingerprints.db");
+        File audio = contents("audio.wav", "audio");
+        FingerprintDatabase database = FingerprintDatabase.open(db, false);
+        database.put(audio, track(audio, new int[] {1, 2, 3, 4}, 4));
+        database.save();
+        try (RandomAccessFile raf = new RandomAccessFile(db, "rw")) {
+            raf.setLength(raf.length() - 8);
+        }
+        assertThrows(AudioMatchingException.class
+                , () -> FingerprintDatabase.open(db, false));
+    }
+
+    private File file(String name) {
+        return directory.resolve(name).toFile();
+    }
+
+    // Given: the name of a file and its contents
+    // Returns: the file, holding those contents
+    private File contents(String name, String contents) throws Exception {
+        File file = file(name);
+        Files.writeString(file.toPath(), contents);
+        return file;
+    }
+
+    // Given: a file, hashes and a base score
+    // Returns: a track of the file with those hashes, of 2.5 s
+    private static Track track(File file, int[] hashes, double baseScore)
+            throws Exception {
+        return new Track(file.getCanonicalPath(), hashes, new TrackMetadata(
+                2.5, 44100, 1, 110250, 7), baseScore);
+    }
+}
@@ -0,0 +1,65 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Fingerprints a file while the hashing side fails, and checks that the
+// decoding threads are not left behind on the ring of blocks
+class FingerprinterTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void failedHashingStopsTheDecoding() throws Exception {
+        // 10 s is many times the ring, so the decoder is waiting on it when
+        // the hashing fails
+        File file = TestAudio.write(directory.resolve("long.wav").toFile()
+                , TestAudio.tune(1, 10));
+        Fingerprinter failing = new Fingerprinter(new WaveDecoder()) {
+            @Override
+            int getHash(double[] spectra, int offset, int[] consideredPoints
+                    , double[] maxScores) {
+                throw new IllegalStateException("bad frame");
+            }
+        };
+        for (int i = 0; i < 20; i++) {
+            assertThrows(IllegalStateException.class
+                    , () -> failing.fingerprint(file));
+        }
+        // A decoder may still be on its way out of the ring, after its END
+        // block was taken, but none stays in it
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (blockedDecoders() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, blockedDecoders());
+
+        // The thread can fingerprint again
+        Track track = new Fingerprinter(new WaveDecoder()).fingerprint(file);
+        assertEquals(10 * TestAudio.RATE / 1024, track.getHashes().length);
+    }
+
+    // Returns: the number of decoding threads waiting on a ring of blocks
+    private static long blockedDecoders() {
+        return Thread.getAllStackTraces().entrySet().stream()
+                .filter(entry -> entry.getKey().getName()
+                        .equals("audio-decoder"))
+                .filter(entry -> {
+                    for (StackTraceElement frame : entry.getValue()) {
+                        if (frame.getClassName().endsWith(
+                                "ArrayBlockingQueue")) {
+                            return true;
+                        }
+                    }
+                    return false;
+                })
+                .count();
+    }
+}
@@ -0,0 +1,85 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// Indexes tracks of random band hashes and checks which tracks, and at which
+// delay, the index finds for queries taken from them
+class HashIndexTest {
+
+    // Tolerance of 6 * 10^4 with these parameters
+    private static final int INTENSITY = 4;
+    private static final int THRESHOLD = 5;
+    private static final double ACCURACY = 0.7;
+
+    private final ArrayList<Track> tracks = new ArrayList();
+    private final HashIndex index;
+
+    HashIndexTest() {
+        Random random = new Random(1);
+        for (int id = 0; id < 20; id++) {
+            int[] hashes = new int[500];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = random.nextInt(1 << 30);
+            }
+            tracks.add(track("track" + id, hashes));
+        }
+        index = new HashIndex(tracks, INTENSITY, THRESHOLD);
+    }
+
+    @Test
+    void searchFindsExcerptsAtTheirDelay() {
+        int[] excerpt = Arrays.copyOfRange(tracks.get(7).getHashes(), 123
+                , 223);
+        assertArrayEquals(new int[] {7, 123}, index.search(excerpt
+                , excerpt.length, ACCURACY));
+    }
+
+    @Test
+    void searchToleratesCloseHashes() {
+        int[] excerpt = Arrays.copyOfRange(tracks.get(3).getHashes(), 0
+                , 100);
+        for (int i = 0; i < excerpt.length; i++) {
+            excerpt[i] += 50000;
+        }
+        // A track that starts later in the query has a negative delay
+        int[] query = new int[excerpt.length + 40];
+        Arrays.fill(query, -1 << 30);
+        System.arraycopy(excerpt, 0, query, 40, excerpt.length);
+        assertArrayEquals(new int[] {3, -40}, index.search(query
+                , excerpt.length, ACCURACY));
+    }
+
+    @Test
+    void searchSkipsTracksBelowTheAccuracy() {
+        // 60 of 100 chunks of track 5, the others from nowhere
+        int[] query = Arrays.copyOfRange(tracks.get(5).getHashes(), 0, 100);
+        for (int i = 60; i < query.length; i++) {
+            query[i] = -1 << 30;
+        }
+        assertArrayEquals(new int[0], index.search(query, query.length
+                , ACCURACY));
+    }
+
+    @Test
+    void candidatesOnlyLookAtTheSameOffsets() {
+        int[] query = tracks.get(11).getHashes().clone();
+        assertArrayEquals(new int[] {11}, index.candidates(query
+                , query.length, ACCURACY));
+        int[] shifted = Arrays.copyOfRange(query, 1, query.length);
+        assertArrayEquals(new int[0], index.candidates(shifted
+                , shifted.length, ACCURACY));
+    }
+
+    // Returns: a track of the given hashes, each a chunk of 1024 samples at
+    //          44.1kHz, scored against itself
+    private static Track track(String name, int[] hashes) {
+        return new Track(name, hashes, new TrackMetadata(hashes.length
+                * 1024 / 44100.0, 44100, 1, hashes.length * 1024L, 0)
+                , hashes.length);
+    }
+}
@@ -0,0 +1,140 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Fingerprints seeded tunes, see TestAudio, with landmarks, and checks that
+// shifted and noisy copies of a tune match it while other tunes don't
+class LandmarkIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private AudioMatchingUtilities utils;
+
+    @BeforeEach
+    void createUtilities() {
+        utils = new AudioMatchingUtilities(2);
+        utils.setLandmarks(true);
+    }
+
+    @AfterEach
+    void closeUtilities() {
+        utils.close();
+    }
+
+    @Test
+    void copiesBehindLeadingSilenceMatch() throws Exception {
+        double[] tune = TestAudio.tune(1, 6);
+        String original = write("original.wav", tune);
+        utils.setPartial(true);
+        utils.initAudio(original);
+        // 2, 5, 10 and 100 ms at 44.1kHz, none a whole number of frames
+        for (int silence : new int[] {100, 220, 441, 4410}) {
+            String delayed = write("delayed" + silence + ".wav"
+                    , TestAudio.delayed(tune, silence));
+            utils.initAudio(delayed);
+            assertNotNull(utils.compare(delayed, original), "" + silence);
+            assertNotNull(utils.compare(original, delayed), "" + silence);
+        }
+    }
+
+    @Test
+    void shiftedCopiesOfTheSameLengthMatch() throws Exception {
+        double[] tune = TestAudio.tune(2, 6);
+        String original = write("original.wav", tune);
+        // The same 6 s, starting 5 ms later
+        String shifted = write("shifted.wav", TestAudio.excerpt(
+                TestAudio.delayed(tune, 220), 0, tune.length));
+        utils.initAudio(original);
+        utils.initAudio(shifted);
+
+        MatchResult result = utils.compare(shifted, original);
+        assertNotNull(result);
+        // 220 samples are less than a frame of 256
+        assertEquals(0, result.getOffset(), 1);
+    }
+
+    @Test
+    void noisyCopiesMatch() throws Exception {
+        double[] tune = TestAudio.tune(3, 6);
+        String original = write("original.wav", tune);
+        String noisy = write("noisy.wav", TestAudio.noisy(tune, 0.02, 9));
+        utils.initAudio(original);
+        utils.initAudio(noisy);
+        assertNotNull(utils.compare(noisy, original));
+        assertNotNull(utils.compare(original, noisy));
+    }
+
+    @Test
+    void otherTunesDontMatch() throws Exception {
+        utils.setPartial(true);
+        String original = write("original.wav", TestAudio.tune(4, 6));
+        utils.initAudio(original);
+        for (int seed = 10; seed < 20; seed++) {
+            String other = write("other" + seed + ".wav"
+                    , TestAudio.tune(seed, 6));
+            utils.initAudio(other);
+            assertNull(utils.compare(other, original), "" + seed);
+        }
+    }
+
+    @Test
+    void searchFindsTheShiftedTrack() throws Exception {
+        Fingerprinter fingerprinter = new Fingerprinter(new WaveDecoder()
+                , true);
+        ArrayList<Track> tracks = new ArrayList();
+        for (int seed = 0; seed < 5; seed++) {
+            tracks.add(fingerprint(fingerprinter, "track" + seed + ".wav"
+                    , TestAudio.tune(seed, 6)));
+        }
+        LandmarkIndex index = new LandmarkIndex(tracks);
+        // Track 3 once 1 s of it is gone, and behind 2 ms of silence
+        double[] tune = TestAudio.tune(3, 6);
+        Track query = fingerprint(fingerprinter, "query.wav"
+                , TestAudio.delayed(TestAudio.excerpt(tune, TestAudio.RATE
+                        , tune.length), 100));
+        int[] found = index.search(query.getHashes(), query.getBaseScore()
+                , 0.7);
+        assertEquals(2, found.length);
+        assertEquals(3, found[0]);
+        // 1 s is 172 frames of 256 samples, less the silence
+        assertEquals(172, found[1], 1);
+        assertArrayEquals(new int[] {3}, index.candidates(query.getHashes()
+                , query.getBaseScore(), 0.7));
+    }
+
+    @Test
+    void shortTracksNeedAllTheirLandmarks() {
+        assertEquals(LandmarkIndex.ALIGNED, LandmarkIndex.required(1000));
+        assertEquals(5, LandmarkIndex.required(5));
+        assertEquals(0, LandmarkIndex.required(0));
+    }
+
+    // Given: the name of a file and its samples
+    // Returns: the canonical path of the file, written in the test directory
+    private String write(String name, double[] samples) throws Exception {
+        return TestAudio.write(directory.resolve(name).toFile(), samples)
+                .getCanonicalPath();
+    }
+
+    // Given: a fingerprinter, the name of a file and its samples
+    // Returns: the track of the file, written in the test directory, scored
+    //          with its number of landmarks
+    private Track fingerprint(Fingerprinter fingerprinter, String name
+            , double[] samples) throws Exception {
+        Track track = fingerprinter.fingerprint(new File(write(name
+                , samples)));
+        return track.withBaseScore(track.getHashes().length / 2);
+    }
+}
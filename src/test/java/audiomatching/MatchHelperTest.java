@@ -0,0 +1,106 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+// Scores fingerprints with a known number of matching chunks, with and
+// without a required score, and checks where the bounded scan stops through
+// the chunks it reports as examined
+class MatchHelperTest {
+
+    // Tolerance of 6 * 10^4 with these parameters
+    private static final int POWER = 4;
+    private static final int OFFSET = 5;
+
+    @Test
+    void exactScore() {
+        int[][] pair = pair(100, 60);
+        assertEquals(60, AudioMatchingUtilities.matchHelper(pair[0], pair[1]
+                , POWER, OFFSET));
+        ChunkScore scored = scored(pair, Double.NEGATIVE_INFINITY, false);
+        assertEquals(60, scored.score);
+        assertEquals(100, scored.examined);
+    }
+
+    @Test
+    void hopelessScanStopsEarly() {
+        // 60 matches out of 100 can't reach 70: after 31 misses it is over
+        ChunkScore scored = scored(pair(100, 60), 70, false);
+        assertTrue(scored.score < 70);
+        assertEquals(60 + 31, scored.examined);
+    }
+
+    @Test
+    void reachableScanGoesOn() {
+        // 60 matches reach 50, without decideOnly the score stays exact
+        ChunkScore scored = scored(pair(100, 60), 50, false);
+        assertEquals(60, scored.score);
+        assertEquals(100, scored.examined);
+    }
+
+    @Test
+    void decideOnlyStopsAtRequiredScore() {
+        // The 60 matching chunks come first, the 50th is chunk 49
+        ChunkScore scored = scored(pair(100, 60), 50, true);
+        assertEquals(50, scored.score);
+        assertEquals(50, scored.examined);
+    }
+
+    @Test
+    void nothingRequiredIsDecidedAtOnce() {
+        ChunkScore scored = scored(pair(100, 60), 0, true);
+        assertEquals(0, scored.score);
+        assertEquals(0, scored.examined);
+    }
+
+    @Test
+    void examinedChunksAreCounted() {
+        Metrics.setEnabled(true);
+        try {
+            long before = Metrics.Counter.SCORED_CHUNKS.adder.sum();
+            scored(pair(100, 60), 70, false);
+            assertEquals(91, Metrics.Counter.SCORED_CHUNKS.adder.sum()
+                    - before);
+        } finally {
+            Metrics.setEnabled(false);
+        }
+    }
+
+    @Test
+    void delayShiftsTheComparedChunks() {
+        // The second fingerprint is the first one shifted by 3 chunks
+        int[] hash1 = new int[20];
+        int[] hash2 = new int[23];
+        hash2[0] = hash2[1] = hash2[2] = -1000000000;
+        for (int i = 0; i < hash1.length; i++) {
+            hash1[i] = i * 1000000;
+            hash2[i + 3] = i * 1000000 + 1;
+        }
+        assertEquals(20, AudioMatchingUtilities.matchHelper(hash1, hash2, 3
+                , POWER, OFFSET));
+        assertEquals(0, AudioMatchingUtilities.matchHelper(hash1, hash2, 0
+                , POWER, OFFSET));
+    }
+
+    // Returns: two fingerprints of the given length whose first chunks match
+    //          (within the tolerance) and whose other chunks don't
+    private static int[][] pair(int length, int matching) {
+        int[][] pair = new int[2][length];
+        for (int i = 0; i < length; i++) {
+            pair[0][i] = i * 1000000;
+            pair[1][i] = i * 1000000 + (i < matching ? 50000 : 70000);
+        }
+        return pair;
+    }
+
+    // Given: two fingerprints, the required score and whether to stop once
+    //        it is reached
+    // Returns: the result of the bounded scan
+    private static ChunkScore scored(int[][] pair, double required
+            , boolean decideOnly) {
+        return AudioMatchingUtilities.matchHelper(pair[0], pair[1], 0, POWER
+                , OFFSET, required, decideOnly);
+    }
+}
@@ -0,0 +1,93 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// Checks what an arena holds, the error it reports when the direct memory
+// runs out, and the direct memory an index takes against the sizes given
+// in the README. The test JVM caps direct memory at 256 MB, see pom.xml
+class OffHeapArenaTest {
+
+    // Band hashes per second of audio, one per token of 1024 samples
+    private static final double HASHES_PER_SECOND = 44100 / 1024.0;
+
+    @Test
+    void valuesRoundTrip() {
+        OffHeapArena arena = new OffHeapArena(64);
+        arena.putInt(0, -7);
+        arena.putLong(8, Long.MIN_VALUE);
+        arena.putFloat(16, 0.5f);
+        arena.putDouble(24, Math.PI);
+        arena.put(32, new byte[] {1, 2, 3});
+        byte[] bytes = new byte[4];
+        arena.get(32, bytes);
+
+        assertEquals(64, arena.size());
+        assertEquals(-7, arena.getInt(0));
+        assertEquals(Long.MIN_VALUE, arena.getLong(8));
+        assertEquals(0.5f, arena.getFloat(16));
+        assertEquals(Math.PI, arena.getDouble(24));
+        assertEquals(1, bytes[0]);
+        assertEquals(3, bytes[2]);
+        // The bytes start zeroed
+        assertEquals(0, bytes[3]);
+        assertEquals(0, arena.getLong(56));
+    }
+
+    @Test
+    void exhaustedDirectMemoryNamesTheOption() {
+        AudioMatchingException ex = assertThrows(
+                AudioMatchingException.class
+                , () -> new OffHeapArena(512L << 20));
+        assertTrue(ex.getMessage().contains("-XX:MaxDirectMemorySize"));
+        // Nothing is left reserved
+        new OffHeapArena(64L << 20);
+    }
+
+    @Test
+    void indexFitsTheDocumentedSize() {
+        // 200 files of a minute each, with hashes packing the four peak bins
+        // of a token the way Fingerprinter.getHash() does
+        int files = 200;
+        int hashes = (int) (60 * HASHES_PER_SECOND);
+        Random random = new Random(1);
+        ArrayList<Track> tracks = new ArrayList();
+        for (int id = 0; id < files; id++) {
+            int[] values = new int[hashes];
+            for (int i = 0; i < hashes; i++) {
+                values[i] = random.nextInt(64) << 24
+                        | random.nextInt(64) << 16 | random.nextInt(128) << 8
+                        | random.nextInt(256);
+            }
+            tracks.add(new Track("/music/artist" + id + "/track" + id
+                    + ".wav", values, new TrackMetadata(60, 44100, 2
+                    , 60 * 44100, id), hashes));
+        }
+
+        System.gc();
+        long before = directMemoryUsed();
+        HashIndex index = new HashIndex(tracks, 4, 5);
+        long used = directMemoryUsed() - before;
+        // About 1 KB per second of audio, plus about 1 KB per file
+        assertEquals(files, index.size());
+        assertTrue(used < 1024 * (60 * files) + 1024 * files, "" + used);
+    }
+
+    // Returns: the bytes held by direct buffers
+    private static long directMemoryUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(
+                BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        throw new IllegalStateException("No direct buffer pool");
+    }
+}
@@ -0,0 +1,208 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import javax.sound.sampled.AudioFormat;
+import org.junit.jupiter.api.Test;
+
+// Decodes small synthetic buffers in every supported sample format, from a
+// stream and from a buffer, and checks the samples against the values they
+// were encoded from
+class PcmReaderTest {
+
+    private static final double EPSILON = 1e-9;
+
+    @Test
+    void unsigned8() throws IOException {
+        byte[] bytes = {(byte) 0x80, (byte) 0xC0, 0x40, 0x00};
+        AudioFormat format = new AudioFormat(
+                AudioFormat.Encoding.PCM_UNSIGNED, 8000, 8, 1, 1, 8000
+                , false);
+        assertSamples(new double[] {0, 0.5, -0.5, -1}, bytes, format);
+    }
+
+    @Test
+    void signed8() throws IOException {
+        byte[] bytes = {0, 0x40, (byte) 0xC0, (byte) 0x80};
+        AudioFormat format = new AudioFormat(8000, 8, 1, true, false);
+        assertSamples(new double[] {0, 0.5, -0.5, -1}, bytes, format);
+    }
+
+    @Test
+    void signed16LittleEndian() throws IOException {
+        assertSigned(16, false);
+    }
+
+    @Test
+    void signed16BigEndian() throws IOException {
+        assertSigned(16, true);
+    }
+
+    @Test
+    void signed24LittleEndian() throws IOException {
+        assertSigned(24, false);
+    }
+
+    @Test
+    void signed24BigEndian() throws IOException {
+        assertSigned(24, true);
+    }
+
+    @Test
+    void signed32LittleEndian() throws IOException {
+        assertSigned(32, false);
+    }
+
+    @Test
+    void signed32BigEndian() throws IOException {
+        assertSigned(32, true);
+    }
+
+    @Test
+    void unsigned16() throws IOException {
+        int[] values = {0x8000, 0xC000, 0x4000, 0};
+        AudioFormat format = new AudioFormat(
+                AudioFormat.Encoding.PCM_UNSIGNED, 8000, 16, 1, 2, 8000
+                , false);
+        assertSamples(new double[] {0, 0.5, -0.5, -1}
+                , encode(values, 2, false), format);
+    }
+
+    @Test
+    void floatLittleEndian() throws IOException {
+        assertFloat(false);
+    }
+
+    @Test
+    void floatBigEndian() throws IOException {
+        assertFloat(true);
+    }
+
+    @Test
+    void channelsAreAveraged() throws IOException {
+        // Two frames of (0.5, -0.25) and (1 - 2^-15, -1)
+        int[] values = {0x4000, -0x2000, 0x7FFF, -0x8000};
+        AudioFormat format = new AudioFormat(8000, 16, 2, true, false);
+        assertSamples(new double[] {0.125, (0x7FFF - 0x8000) / 65536.0}
+                , encode(values, 2, false), format);
+    }
+
+    @Test
+    void tokensEndWithPartialToken() throws IOException {
+        int[] values = {1, 2, 3, 4, 5};
+        AudioFormat format = new AudioFormat(8000, 16, 1, true, false);
+        PcmReader reader = new PcmReader(new ByteArrayInputStream(
+                encode(values, 2, false)), format, 2);
+        double[] token = new double[2];
+        assertEquals(2, reader.read(token));
+        assertEquals(2, reader.read(token));
+        assertEquals(1, reader.read(token));
+        assertEquals(5 / 32768.0, token[0], EPSILON);
+        assertEquals(-1, reader.read(token));
+        assertEquals(5, reader.getFrames());
+        assertEquals(10, reader.getBytesRead());
+        assertEquals(5 / 8000.0, reader.getDuration(), EPSILON);
+    }
+
+    @Test
+    void incompleteFramesAreDropped() throws IOException {
+        // One stereo frame and half of another
+        byte[] bytes = encode(new int[] {0x4000, 0x4000, 0x4000}, 2, false);
+        AudioFormat format = new AudioFormat(8000, 16, 2, true, false);
+        PcmReader reader = new PcmReader(new ByteArrayInputStream(bytes)
+                , format, 4);
+        double[] token = new double[4];
+        assertEquals(1, reader.read(token));
+        assertEquals(0.5, token[0], EPSILON);
+    }
+
+    @Test
+    void unsupportedFormatsAreRejected() {
+        assertThrows(IOException.class, () -> new PcmReader(
+                new ByteArrayInputStream(new byte[0])
+                , new AudioFormat(8000, 12, 1, true, false), 4));
+        assertThrows(IOException.class, () -> new PcmReader(
+                new ByteArrayInputStream(new byte[0]), new AudioFormat(
+                        AudioFormat.Encoding.PCM_FLOAT, 8000, 64, 1, 8, 8000
+                        , false), 4));
+        assertThrows(IOException.class, () -> new PcmReader(
+                new ByteArrayInputStream(new byte[0]), new AudioFormat(
+                        AudioFormat.Encoding.ULAW, 8000, 8, 1, 1, 8000
+                        , false), 4));
+    }
+
+    // Given: a sample size and a byte order
+    // Checks 0, 1/2, -1/4, the most negative and the most positive samples
+    private static void assertSigned(int bits, boolean bigEndian)
+            throws IOException {
+        long full = 1L << (bits - 1);
+        int[] values = {0, (int) (full / 2), (int) (-full / 4), (int) -full
+                , (int) (full - 1)};
+        double[] expected = {0, 0.5, -0.25, -1, (full - 1.0) / full};
+        AudioFormat format = new AudioFormat(8000, bits, 1, true, bigEndian);
+        assertSamples(expected, encode(values, bits / 8, bigEndian), format);
+    }
+
+    // Given: a byte order
+    // Checks float samples, which are passed through as they are
+    private static void assertFloat(boolean bigEndian) throws IOException {
+        float[] values = {0, 0.25f, -0.5f, 1, -1};
+        ByteBuffer buffer = ByteBuffer.allocate(4 * values.length).order(
+                bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+        AudioFormat format = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT
+                , 8000, 32, 1, 4, 8000, bigEndian);
+        assertSamples(new double[] {0, 0.25, -0.5, 1, -1}, buffer.array()
+                , format);
+    }
+
+    // Given: the expected samples, the frames they were encoded to and the
+    //        format of those frames
+    // Checks that both a stream reader and a buffer reader decode them, one
+    // token of 3 samples at a time
+    private static void assertSamples(double[] expected, byte[] bytes
+            , AudioFormat format) throws IOException {
+        assertArrayEquals(expected, readAll(new PcmReader(
+                new ByteArrayInputStream(bytes), format, 3), expected.length)
+                , EPSILON);
+        assertArrayEquals(expected, readAll(new PcmReader(
+                ByteBuffer.wrap(bytes), format, 3), expected.length)
+                , EPSILON);
+    }
+
+    // Returns: the samples of a reader, decoded token after token into a
+    //          single buffer
+    private static double[] readAll(PcmReader reader, int count)
+            throws IOException {
+        double[] samples = new double[count + 3];
+        int total = 0;
+        int read;
+        while ((read = reader.read(samples, total)) > 0) {
+            total += read;
+        }
+        assertEquals(count, total);
+        return Arrays.copyOf(samples, total);
+    }
+
+    // Given: integer samples, the number of bytes of each and a byte order
+    // Returns: the samples encoded as raw PCM bytes
+    private static byte[] encode(int[] values, int size, boolean bigEndian) {
+        byte[] bytes = new byte[values.length * size];
+        for (int i = 0; i < values.length; i++) {
+            for (int b = 0; b < size; b++) {
+                int shift = 8 * (bigEndian ? size - 1 - b : b);
+                bytes[i * size + b] = (byte) (values[i] >> shift);
+            }
+        }
+        return bytes;
+    }
+}
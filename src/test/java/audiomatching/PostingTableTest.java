@@ -0,0 +1,88 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+// Builds posting tables with many more keys than the initial 16 slots, and
+// reads every posting back
+class PostingTableTest {
+
+    @Test
+    void postingsRoundTripPastGrowth() {
+        // Key k gets k % 5 + 1 postings of (k, i, -k), added in order
+        int keys = 1000;
+        PostingTable table = new PostingTable(3);
+        for (int k = 0; k < keys; k++) {
+            for (int i = 0; i <= k % 5; i++) {
+                table.count(key(k));
+            }
+        }
+        table.allocate();
+        for (int k = 0; k < keys; k++) {
+            for (int i = 0; i <= k % 5; i++) {
+                long posting = table.add(key(k));
+                table.set(posting, 0, k);
+                table.set(posting, 1, i);
+                table.set(posting, 2, -k);
+            }
+        }
+
+        assertEquals(keys, table.size());
+        for (int k = 0; k < keys; k++) {
+            long slot = table.find(key(k));
+            assertEquals(k % 5 + 1, table.end(slot) - table.start(slot));
+            for (long p = table.start(slot); p < table.end(slot); p++) {
+                assertEquals(k, table.get(p, 0));
+                assertEquals(p - table.start(slot), table.get(p, 1));
+                assertEquals(-k, table.get(p, 2));
+            }
+        }
+        assertEquals(-1, table.find(key(keys)));
+    }
+
+    @Test
+    void emptyTable() {
+        PostingTable table = new PostingTable(1);
+        table.allocate();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.find(0));
+    }
+
+    @Test
+    void sortKeepsEqualValuesInOrder() {
+        int[] values = {5, 1, 3, 1, 5, 0, 3};
+        PostingTable table = new PostingTable(2);
+        for (int i = 0; i < values.length; i++) {
+            table.count(7);
+        }
+        table.allocate();
+        for (int i = 0; i < values.length; i++) {
+            long posting = table.add(7);
+            table.set(posting, 0, i);
+            table.set(posting, 1, values[i]);
+        }
+        table.sort(1);
+
+        long slot = table.find(7);
+        int[] order = new int[values.length];
+        int[] sorted = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            order[i] = table.get(table.start(slot) + i, 0);
+            sorted[i] = table.get(table.start(slot) + i, 1);
+        }
+        assertArrayEquals(new int[] {5, 1, 3, 2, 6, 0, 4}, order);
+        assertArrayEquals(new int[] {0, 1, 1, 3, 3, 5, 5}, sorted);
+
+        assertEquals(table.start(slot), table.lowerBound(slot, 1, -1));
+        assertEquals(table.start(slot) + 1, table.lowerBound(slot, 1, 1));
+        assertEquals(table.start(slot) + 3, table.lowerBound(slot, 1, 2));
+        assertEquals(table.end(slot), table.lowerBound(slot, 1, 6));
+    }
+
+    // Returns: keys spread over the whole range of longs, negative ones too
+    private static long key(int k) {
+        return k * 0x9E3779B97F4A7C15L;
+    }
+}
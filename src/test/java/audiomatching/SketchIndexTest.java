@@ -0,0 +1,111 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+// Indexes tracks of random band hashes behind sketches, and checks that
+// the candidates keep every track a query matches while leaving most of the
+// others out, and that shifted queries go to the index unchanged
+class SketchIndexTest {
+
+    // Tolerance of 6 * 10^4 with these parameters
+    private static final int INTENSITY = 4;
+    private static final int THRESHOLD = 5;
+    private static final double ACCURACY = 0.7;
+
+    private final Random random = new Random(1);
+    private final ArrayList<Track> tracks = new ArrayList();
+    private final HashIndex index;
+    private final SketchIndex sketches;
+
+    SketchIndexTest() {
+        for (int id = 0; id < 300; id++) {
+            tracks.add(track("track" + id, hashes(200)));
+        }
+        tracks.add(track("empty", new int[0]));
+        index = new HashIndex(tracks, INTENSITY, THRESHOLD);
+        sketches = new SketchIndex(tracks, index);
+    }
+
+    @Test
+    void candidatesKeepEveryMatchingTrack() {
+        long tolerance = index.getTolerance();
+        int matched = 0;
+        for (int q = 0; q < 100; q++) {
+            // 75% of the chunks of a track, each anywhere within the
+            // tolerance, so many of them across a cell of the sketch
+            int[] query = tracks.get(q).getHashes().clone();
+            for (int i = 0; i < query.length; i++) {
+                query[i] = random.nextDouble() < 0.75
+                        ? query[i] + (int) (random.nextLong() % tolerance)
+                        : random.nextInt(1 << 30);
+            }
+            int[] candidates = sketches.candidates(query, query.length
+                    , ACCURACY);
+            for (int id = 0; id < tracks.size(); id++) {
+                int[] hashes = tracks.get(id).getHashes();
+                if (hashes.length > 0 && AudioMatchingUtilities.matchHelper(
+                        query, hashes, INTENSITY, THRESHOLD)
+                        >= ACCURACY * Math.min(query.length, hashes.length)) {
+                    assertTrue(Arrays.binarySearch(candidates, id) >= 0
+                            , q + " misses " + id);
+                    matched++;
+                }
+            }
+        }
+        // Close to the accuracy, not every query matches its track
+        assertTrue(matched > 90, "" + matched);
+    }
+
+    @Test
+    void candidatesLeaveUnrelatedTracksOut() {
+        int found = 0;
+        for (int q = 0; q < 100; q++) {
+            found += sketches.candidates(hashes(200), 200, ACCURACY).length;
+        }
+        // The empty track is a candidate of every query, and on average
+        // less than 1% of the others are
+        assertTrue(found < 100 * (1 + tracks.size() / 100), "" + found);
+    }
+
+    @Test
+    void queriesWithoutHashesMatchEveryTrack() {
+        assertEquals(tracks.size(), sketches.candidates(new int[0], 0
+                , ACCURACY).length);
+    }
+
+    @Test
+    void shiftedQueriesGoToTheIndex() {
+        int[] excerpt = Arrays.copyOfRange(tracks.get(42).getHashes(), 30
+                , 130);
+        // The empty track matches any query
+        assertArrayEquals(new int[] {42, 30, 300, 0}, sketches.search(
+                excerpt, excerpt.length, ACCURACY));
+        assertArrayEquals(index.search(excerpt, excerpt.length, ACCURACY)
+                , sketches.search(excerpt, excerpt.length, ACCURACY));
+    }
+
+    // Given: a number of chunks
+    // Returns: that many random hashes
+    private int[] hashes(int length) {
+        int[] hashes = new int[length];
+        for (int i = 0; i < length; i++) {
+            hashes[i] = random.nextInt(1 << 30);
+        }
+        return hashes;
+    }
+
+    // Returns: a track of the given hashes, each a chunk of 1024 samples at
+    //          44.1kHz, scored against itself
+    private static Track track(String name, int[] hashes) {
+        return new Track(name, hashes, new TrackMetadata(hashes.length
+                * 1024 / 44100.0, 44100, 1, hashes.length * 1024L, 0)
+                , hashes.length);
+    }
+}
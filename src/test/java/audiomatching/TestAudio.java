@@ -0,0 +1,88 @@
+package audiomatching;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+
+// Makes the audio the tests match: seeded tunes of short notes, which tell
+// one moment from another the way music does, and the usual edits of a
+// recording, written as 44.1kHz 16 bit mono WAVE files
+final class TestAudio {
+
+    static final int RATE = 44100;
+
+    private TestAudio() {
+    }
+
+    // Given: a seed and a length in seconds
+    // Returns: a tune of notes of 50 to 250 ms, each a mix of two random
+    //          tones, along with a little noise
+    static double[] tune(long seed, double seconds) {
+        Random random = new Random(seed);
+        double[] samples = new double[(int) (seconds * RATE)];
+        int i = 0;
+        while (i < samples.length) {
+            int length = (int) ((0.05 + 0.2 * random.nextDouble()) * RATE);
+            double tone1 = 200 + random.nextInt(1800);
+            double tone2 = 2000 + random.nextInt(6000);
+            for (int n = 0; n < length && i < samples.length; n++, i++) {
+                samples[i] = 0.5 * Math.sin(2 * Math.PI * tone1 * n / RATE)
+                        + 0.3 * Math.sin(2 * Math.PI * tone2 * n / RATE)
+                        + 0.01 * random.nextGaussian();
+            }
+        }
+        return samples;
+    }
+
+    // Given: samples and a number of samples of silence
+    // Returns: the samples after that much silence
+    static double[] delayed(double[] samples, int silence) {
+        double[] delayed = new double[silence + samples.length];
+        System.arraycopy(samples, 0, delayed, silence, samples.length);
+        return delayed;
+    }
+
+    // Given: samples and a range of them
+    // Returns: the samples of the range
+    static double[] excerpt(double[] samples, int from, int to) {
+        return Arrays.copyOfRange(samples, from, to);
+    }
+
+    // Given: samples, a level relative to their RMS and a seed
+    // Returns: the samples with white noise of that level added
+    static double[] noisy(double[] samples, double level, long seed) {
+        Random random = new Random(seed);
+        double power = 0;
+        for (double sample : samples) {
+            power += sample * sample;
+        }
+        double rms = Math.sqrt(power / Math.max(1, samples.length));
+        double[] noisy = new double[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            noisy[i] = samples[i] + level * rms * random.nextGaussian();
+        }
+        return noisy;
+    }
+
+    // Given: a target file and samples between -1 and 1
+    // Returns: the file, written as a WAVE file of those samples
+    static File write(File file, double[] samples) throws IOException {
+        byte[] data = new byte[2 * samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            short sample = (short) (Math.max(-1, Math.min(1, samples[i]))
+                    * Short.MAX_VALUE);
+            data[2 * i] = (byte) sample;
+            data[2 * i + 1] = (byte) (sample >> 8);
+        }
+        AudioFormat format = new AudioFormat(RATE, 16, 1, true, false);
+        AudioSystem.write(new AudioInputStream(new ByteArrayInputStream(data)
+                , format, samples.length), AudioFileFormat.Type.WAVE, file);
+        return file;
+    }
+}
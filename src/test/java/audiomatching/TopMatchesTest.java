@@ -0,0 +1,62 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+// Offers tracks in various orders and checks which ones are kept and how
+// they are ranked
+class TopMatchesTest {
+
+    @Test
+    void keepsTheBestInOrder() {
+        TopMatches top = new TopMatches(3);
+        double[] scores = {4, 9, 1, 7, 3, 8, 2};
+        for (int id = 0; id < scores.length; id++) {
+            top.offer(id, scores[id], 10 * id, scores[id] / 10);
+        }
+        assertTrue(top.isFull());
+        assertEquals(7, top.minScore());
+
+        top.sort();
+        assertArrayEquals(new int[] {1, 5, 3}, ids(top));
+        assertEquals(9, top.getScore(0));
+        assertEquals(10, top.getOffset(0));
+        assertEquals(0.9, top.getConfidence(0));
+        assertEquals(7, top.getScore(2));
+        assertEquals(30, top.getOffset(2));
+    }
+
+    @Test
+    void lowerIdsWinTies() {
+        TopMatches top = new TopMatches(2);
+        top.offer(5, 1, 0, 1);
+        top.offer(3, 1, 0, 1);
+        top.offer(4, 1, 0, 1);
+        top.offer(1, 1, 0, 1);
+        top.sort();
+        assertArrayEquals(new int[] {1, 3}, ids(top));
+    }
+
+    @Test
+    void fewerThanK() {
+        TopMatches top = new TopMatches(5);
+        top.offer(2, 0.5, 0, 1);
+        top.offer(0, 2.5, 0, 1);
+        assertFalse(top.isFull());
+        assertEquals(2, top.size());
+        top.sort();
+        assertArrayEquals(new int[] {0, 2}, ids(top));
+    }
+
+    private static int[] ids(TopMatches top) {
+        int[] ids = new int[top.size()];
+        for (int slot = 0; slot < ids.length; slot++) {
+            ids[slot] = top.getId(slot);
+        }
+        return ids;
+    }
+}
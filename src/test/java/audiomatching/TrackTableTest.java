@@ -0,0 +1,97 @@
+package audiomatching;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+// Holds a few hundred tracks of different lengths off the heap and reads
+// back their names, hashes, base scores and metadata
+class TrackTableTest {
+
+    private static final int TRACKS = 300;
+
+    @Test
+    void tracksRoundTrip() {
+        List<Track> tracks = tracks();
+        TrackTable table = new TrackTable(tracks);
+
+        assertEquals(TRACKS, table.size());
+        for (int id = 0; id < TRACKS; id++) {
+            Track track = tracks.get(id);
+            assertEquals(track.getName(), table.getName(id));
+            assertEquals(track.getBaseScore(), table.getBaseScore(id));
+            assertEquals(track.getHashes().length, table.getHashCount(id));
+            assertArrayEquals(track.getHashes(), table.getHashes(id));
+            for (int offset = 0; offset < track.getHashes().length
+                    ; offset++) {
+                assertEquals(track.getHashes()[offset]
+                        , table.getHash(id, offset));
+            }
+
+            Track copy = table.getTrack(id);
+            assertEquals(track.getName(), copy.getName());
+            assertArrayEquals(track.getHashes(), copy.getHashes());
+            TrackMetadata expected = track.getMetadata();
+            TrackMetadata metadata = copy.getMetadata();
+            assertEquals(expected.getDuration(), metadata.getDuration());
+            assertEquals(expected.getSampleRate(), metadata.getSampleRate());
+            assertEquals(expected.getChannels(), metadata.getChannels());
+            assertEquals(expected.getFrames(), metadata.getFrames());
+            assertEquals(expected.getDigest(), metadata.getDigest());
+        }
+    }
+
+    @Test
+    void findByName() {
+        TrackTable table = new TrackTable(tracks());
+        for (int id = 0; id < TRACKS; id++) {
+            assertEquals(id, table.find(name(id)));
+        }
+        assertEquals(-1, table.find(name(TRACKS)));
+        assertEquals(-1, table.find(""));
+    }
+
+    @Test
+    void withDuration() {
+        TrackTable table = new TrackTable(tracks());
+        // Durations cycle through 7 values
+        int[] ids = table.withDuration(3.5);
+        assertEquals(TRACKS / 7 + 1, ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(7 * i + 3, ids[i]);
+        }
+        assertEquals(0, table.withDuration(100).length);
+    }
+
+    @Test
+    void intersect() {
+        assertArrayEquals(new int[] {2, 5}, TrackTable.intersect(
+                new int[] {1, 2, 5, 8}, new int[] {0, 2, 3, 5, 9}));
+        assertArrayEquals(new int[0], TrackTable.intersect(
+                new int[] {1, 3}, new int[] {2, 4}));
+    }
+
+    // Returns: tracks of 0 to 49 hashes, with a duration of id % 7 + 0.5
+    //          seconds and names that are not all ASCII
+    private static List<Track> tracks() {
+        ArrayList<Track> tracks = new ArrayList();
+        for (int id = 0; id < TRACKS; id++) {
+            int[] hashes = new int[id % 50];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = (id - 150) * 1000003 + i;
+            }
+            TrackMetadata metadata = new TrackMetadata(id % 7 + 0.5
+                    , 44100, 1 + id % 2, id * 1000L, ~id);
+            tracks.add(new Track(name(id), hashes, metadata, id / 3.0));
+        }
+        return tracks;
+    }
+
+    private static String name(int id) {
+        return "/music/" + (id % 2 == 0 ? "chanson" : "chansoné")
+                + id + ".wav";
+    }
+}
@@ -0,0 +1,97 @@
+package audiomatching;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+// The kernels of Kernels written with the Vector API, as many doubles at a
+// time as the preferred vector of the CPU holds. Loaded by Kernels when the
+// incubator module is available, see there how to build and run it.
+// Every lane does the same operations as the scalar loop, so the results
+// are bit for bit the same. Stages and ranges shorter than a vector, and
+// the tails of ranges, are left to the scalar loops
+class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Double> SPECIES
+            = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private final Kernels scalar = new Kernels.Scalar();
+
+    VectorKernels() {
+        // Fail here, while Kernels can still fall back, if vectors of
+        // doubles are not usable
+        DoubleVector.zero(SPECIES);
+    }
+
+    @Override
+    String name() {
+        return "vector" + LANES;
+    }
+
+    @Override
+    void butterflies(double[] x, double[] y, int n, int span
+            , double[] cos, double[] sin) {
+        if (span < LANES) {
+            scalar.butterflies(x, y, n, span, cos, sin);
+            return;
+        }
+        for (int k = 0; k < n; k += 2 * span) {
+            for (int j = 0; j < span; j += LANES) {
+                int top = k + j;
+                int bottom = top + span;
+                DoubleVector c = DoubleVector.fromArray(SPECIES, cos, j);
+                DoubleVector s = DoubleVector.fromArray(SPECIES, sin, j);
+                DoubleVector xb = DoubleVector.fromArray(SPECIES, x, bottom);
+                DoubleVector yb = DoubleVector.fromArray(SPECIES, y, bottom);
+                DoubleVector xt = DoubleVector.fromArray(SPECIES, x, top);
+                DoubleVector yt = DoubleVector.fromArray(SPECIES, y, top);
+                DoubleVector t1 = c.mul(xb).sub(s.mul(yb));
+                DoubleVector t2 = s.mul(xb).add(c.mul(yb));
+                xt.sub(t1).intoArray(x, bottom);
+                yt.sub(t2).intoArray(y, bottom);
+                xt.add(t1).intoArray(x, top);
+                yt.add(t2).intoArray(y, top);
+            }
+        }
+    }
+
+    // Process: the largest value is found lane by lane, then the first
+    //          index holding it. Lanes max NaN values through, so a range
+    //          holding one is left to the scalar loop
+    @Override
+    int argmax(double[] values, int from, int to) {
+        int end = from + (to - from) / LANES * LANES;
+        if (end == from) {
+            return scalar.argmax(values, from, to);
+        }
+        DoubleVector max = DoubleVector.broadcast(SPECIES
+                , Double.NEGATIVE_INFINITY);
+        for (int i = from; i < end; i += LANES) {
+            max = max.max(DoubleVector.fromArray(SPECIES, values, i));
+        }
+        double best = max.reduceLanes(VectorOperators.MAX);
+        for (int i = end; i < to; i++) {
+            best = Math.max(best, values[i]);
+        }
+        if (Double.isNaN(best) || best == Double.NEGATIVE_INFINITY) {
+            return scalar.argmax(values, from, to);
+        }
+        return firstAtLeast(values, from, to, best);
+    }
+
+    @Override
+    int firstAtLeast(double[] values, int from, int to, double bound) {
+        int i = from;
+        int end = from + (to - from) / LANES * LANES;
+        for (; i < end; i += LANES) {
+            VectorMask<Double> found = DoubleVector.fromArray(
+                    SPECIES, values, i).compare(VectorOperators.GE, bound);
+            if (found.anyTrue()) {
+                return i + found.firstTrue();
+            }
+        }
+        return scalar.firstAtLeast(values, i, to, bound);
+    }
+}